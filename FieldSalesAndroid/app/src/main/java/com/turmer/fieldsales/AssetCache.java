@@ -0,0 +1,583 @@
+package com.turmer.fieldsales;
+
+import android.util.Log;
+import android.webkit.CookieManager;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Disk cache for the sub-resources of rendered pages (logos, web fonts, QR and
+ * barcode images), served through {@code WebViewClient.shouldInterceptRequest}.
+ *
+ * Bodies are stored content-addressed — one file per SHA-256, shared by every
+ * URL that returns the same bytes — and an index maps each URL to its blob
+ * plus the validators and response headers (Content-Type, CORS,
+ * Cache-Control…) it came with, which are replayed when it is served. A fresh
+ * entry is served from disk without touching the network; a stale one is
+ * revalidated with If-None-Match / If-Modified-Since, so an unchanged asset
+ * costs one empty 304. When the network is down, stale entries are served as
+ * they are.
+ *
+ * Only responses that can be revalidated or say how long they stay fresh are
+ * stored: hashed bundles, and responses with an ETag, Last-Modified or
+ * max-age. Entries without max-age are revalidated on every use. Anything
+ * else, and every non-200 response, is handed to WebView as received
+ * (status and headers included) without being stored.
+ *
+ * Odoo's hashed bundle URLs ({@code /web/assets/<hash>/…}) never change
+ * content, so they are served without revalidation; when a bundle's hash
+ * changes the old version is dropped as soon as the new one is stored, and
+ * {@link #refresh} fetches new bundles in the background ahead of the next
+ * cold start. In background-revalidation mode (main POS WebView) stale
+ * entries are served immediately and revalidated off the request path.
+ *
+ * Blobs are evicted least recently used first once the directory grows past
+ * its size cap. {@link #intercept} is called on WebView's network threads and
+ * may block on I/O. The index is kept in memory and written in the
+ * background, once per {@link #SAVE_DELAY_MS} burst of changes, never on a
+ * request thread; a write lost to process death only costs revalidations.
+ */
+final class AssetCache {
+
+    private static final String TAG = "AssetCache";
+
+    /** Default total size blobs are trimmed to. */
+    static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+    private static final String INDEX = "index.json";
+
+    /** How long index changes are collected before one background write. */
+    static final long SAVE_DELAY_MS = 2000;
+
+    // Odoo bundle URLs: /web/assets/<hash>/name (17+) or /web/assets/<id>-<hash>/name (≤16)
+    private static final Pattern VERSIONED = Pattern.compile("^/web/assets/(?:\\d+-)?[0-9a-f]{7,}/(.+)$");
+    private static final Pattern ASSET_REF = Pattern.compile("[\"'](/web/assets/[^\"'\\s?#]+)");
+
+    // Response headers that describe the original transfer, not the stored body
+    private static final Set<String> NOT_REPLAYED = new HashSet<>(Arrays.asList(
+            "connection", "keep-alive", "transfer-encoding", "content-encoding",
+            "content-length", "set-cookie", "set-cookie2"));
+
+    // Background revalidation, bundle prefetch and index writes, off WebView's request threads
+    private static final ScheduledExecutorService BACKGROUND = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "asset-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** What we know about one URL. */
+    private static final class Meta {
+        String hash;
+        String mime;
+        String encoding;
+        String etag;
+        String lastModified;
+        long freshUntil;
+        Map<String, String> headers = new HashMap<>();
+    }
+
+    private final File dir;
+    private final long maxBytes;
+    private final boolean revalidateInBackground;
+    private final Map<String, Meta> index = new HashMap<>();
+    private boolean loaded;
+    private boolean savePending;
+
+    AssetCache(File dir) {
+        this(dir, DEFAULT_MAX_BYTES, false);
+    }
+
+    /**
+     * @param maxBytes               size cap of the cache directory
+     * @param revalidateInBackground serve stale entries at once and revalidate
+     *                               them in the background (stale-while-revalidate)
+     */
+    AssetCache(File dir, long maxBytes, boolean revalidateInBackground) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.revalidateInBackground = revalidateInBackground;
+    }
+
+    /** Hashed Odoo bundle or module static file — what the main WebView caches. */
+    static boolean isStatic(String path) {
+        return path != null && (VERSIONED.matcher(path).matches() || path.contains("/static/"));
+    }
+
+    /**
+     * Response for {@code request} from the cache (revalidating if stale) or
+     * passed through from the network, or null to let WebView load it itself —
+     * non-GET, non-HTTP, ranged requests, redirects it must follow.
+     */
+    WebResourceResponse intercept(WebResourceRequest request) {
+        String scheme = request.getUrl().getScheme();
+        if (!"GET".equalsIgnoreCase(request.getMethod())
+                || !("http".equals(scheme) || "https".equals(scheme))) {
+            return null;
+        }
+        Map<String, String> headers = request.getRequestHeaders();
+        if (headers != null && (headers.containsKey("Range") || headers.containsKey("range"))) return null;
+
+        String url = request.getUrl().toString();
+        Meta cached = lookup(url);
+        if (cached != null) {
+            boolean fresh = System.currentTimeMillis() < cached.freshUntil;
+            WebResourceResponse hit = fresh || revalidateInBackground ? serve(cached) : null;
+            if (hit != null) {
+                if (!fresh) revalidateLater(url, headers, cached);
+                return hit;
+            }
+            if (fresh || revalidateInBackground) cached = null; // blob was evicted under the index
+        }
+
+        try {
+            return fetch(url, headers, cached);
+        } catch (IOException e) {
+            Log.w(TAG, "Fetch failed for " + url + ": " + e.getMessage());
+            return cached != null ? serve(cached) : null; // stale beats nothing
+        }
+    }
+
+    /**
+     * Looks up the bundles {@code pageUrl} currently references and downloads
+     * any that are not cached yet (the server's bundle hash changed). Runs in
+     * the background; the response body of the page itself is discarded.
+     */
+    void refresh(String pageUrl) {
+        BACKGROUND.execute(() -> {
+            try {
+                HttpURLConnection conn = HttpClient.open(pageUrl);
+                String cookies = CookieManager.getInstance().getCookie(pageUrl);
+                if (cookies != null) conn.setRequestProperty("Cookie", cookies);
+                if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                    HttpClient.discard(conn);
+                    return;
+                }
+                String html;
+                try (InputStream in = conn.getInputStream()) {
+                    html = new String(readAll(in, Integer.MAX_VALUE), StandardCharsets.UTF_8);
+                }
+                Matcher m = ASSET_REF.matcher(html);
+                int fetched = 0;
+                while (m.find()) {
+                    String url = new URL(new URL(pageUrl), m.group(1)).toString();
+                    if (lookup(url) != null) continue;
+                    WebResourceResponse r = fetch(url, null, null);
+                    if (r != null) r.getData().close();
+                    fetched++;
+                }
+                if (fetched > 0) Log.d(TAG, "Prefetched " + fetched + " new bundle(s) for " + pageUrl);
+            } catch (IOException e) {
+                Log.w(TAG, "Bundle refresh failed: " + e.getMessage());
+            }
+        });
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // NETWORK
+    // ──────────────────────────────────────────────────────────────────────────
+
+    /** Revalidates a stale entry that was already served. */
+    private void revalidateLater(String url, Map<String, String> headers, Meta cached) {
+        BACKGROUND.execute(() -> {
+            try {
+                WebResourceResponse r = fetch(url, headers, cached);
+                if (r != null) r.getData().close();
+            } catch (IOException e) {
+                Log.w(TAG, "Revalidation failed for " + url + ": " + e.getMessage());
+            }
+        });
+    }
+
+    private WebResourceResponse fetch(String url, Map<String, String> headers, Meta cached)
+            throws IOException {
+        HttpURLConnection conn = HttpClient.open(url);
+        if (headers != null) {
+            for (Map.Entry<String, String> h : headers.entrySet()) {
+                String name = h.getKey();
+                // Leave compression to HttpURLConnection, which then decodes it for us.
+                // Validators are ours: a 304 to WebView's own could not be handed back.
+                if ("Accept-Encoding".equalsIgnoreCase(name)
+                        || "If-None-Match".equalsIgnoreCase(name)
+                        || "If-Modified-Since".equalsIgnoreCase(name)) continue;
+                conn.setRequestProperty(name, h.getValue());
+            }
+        }
+        String cookies = CookieManager.getInstance().getCookie(url);
+        if (cookies != null) conn.setRequestProperty("Cookie", cookies);
+        if (cached != null) {
+            if (cached.etag != null) conn.setRequestProperty("If-None-Match", cached.etag);
+            if (cached.lastModified != null) {
+                conn.setRequestProperty("If-Modified-Since", cached.lastModified);
+            }
+        }
+
+        int code = conn.getResponseCode();
+        if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+            long fresh = freshUntil(conn, url);
+            HttpClient.discard(conn);
+            synchronized (this) {
+                cached.freshUntil = fresh;
+                saveIndexLater();
+            }
+            return serve(cached);
+        }
+        if (code != HttpURLConnection.HTTP_OK) {
+            if (cached != null && code >= 500) {
+                HttpClient.discard(conn);
+                return serve(cached); // stale beats a server error
+            }
+            if (code >= 300 && code < 400) {
+                // Redirect HttpURLConnection won't follow (other scheme): WebView must
+                HttpClient.discard(conn);
+                return null;
+            }
+            if (cached != null) forget(url);
+            return passThrough(conn, code);
+        }
+
+        if (!storable(conn, url) || conn.getContentLength() > maxEntryBytes()) {
+            if (cached != null) forget(url); // no longer cacheable: don't serve it stale again
+            return passThrough(conn, code);
+        }
+
+        String[] type = parseContentType(conn.getContentType());
+        Map<String, String> responseHeaders = responseHeaders(conn);
+
+        InputStream in = conn.getInputStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            byte[] buf = new byte[HttpClient.BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+                if (out.size() > maxEntryBytes()) {
+                    // Length wasn't announced — hand over what we have plus the rest
+                    return response(type[0], type[1], code, conn.getResponseMessage(),
+                            responseHeaders, new SequenceInputStream(
+                                    new ByteArrayInputStream(out.toByteArray()), in));
+                }
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        in.close();
+        byte[] body = out.toByteArray();
+
+        Meta m = new Meta();
+        m.hash = sha256(body);
+        m.mime = type[0];
+        m.encoding = type[1];
+        m.etag = conn.getHeaderField("ETag");
+        m.lastModified = conn.getHeaderField("Last-Modified");
+        m.freshUntil = freshUntil(conn, url);
+        m.headers = responseHeaders;
+        store(url, m, body);
+        return response(m.mime, m.encoding, code, conn.getResponseMessage(), m.headers,
+                new ByteArrayInputStream(body));
+    }
+
+    /** Hands a response to WebView as received, status and headers included, unstored. */
+    private static WebResourceResponse passThrough(HttpURLConnection conn, int code) throws IOException {
+        String[] type = parseContentType(conn.getContentType());
+        return response(type[0], type[1], code, conn.getResponseMessage(), responseHeaders(conn),
+                HttpClient.body(conn));
+    }
+
+    /**
+     * Hashed bundles, and responses that can be revalidated (ETag /
+     * Last-Modified) or carry an explicit max-age — never no-store. Other
+     * responses (an authenticated /web/image without validators) would
+     * otherwise be served from disk on a guess.
+     */
+    private static boolean storable(HttpURLConnection conn, String url) {
+        String cc = conn.getHeaderField("Cache-Control");
+        if (cc != null && cc.contains("no-store")) return false;
+        if (VERSIONED.matcher(pathOf(url)).matches()) return true;
+        return conn.getHeaderField("ETag") != null || conn.getHeaderField("Last-Modified") != null
+                || (cc != null && cc.contains("max-age="));
+    }
+
+    /**
+     * Never for hashed bundles; else from Cache-Control max-age. Without one
+     * (or with no-cache) the entry must be revalidated on every use.
+     */
+    private static long freshUntil(HttpURLConnection conn, String url) {
+        if (VERSIONED.matcher(pathOf(url)).matches()) return Long.MAX_VALUE;
+        long now = System.currentTimeMillis();
+        String cc = conn.getHeaderField("Cache-Control");
+        if (cc != null) {
+            if (cc.contains("no-cache")) return now;
+            for (String part : cc.split(",")) {
+                String p = part.trim();
+                if (p.startsWith("max-age=")) {
+                    try {
+                        return now + Long.parseLong(p.substring(8)) * 1000L;
+                    } catch (NumberFormatException ignored) {}
+                }
+            }
+        }
+        return now;
+    }
+
+    /** Headers to replay with the body: everything but transfer details and cookies. */
+    private static Map<String, String> responseHeaders(HttpURLConnection conn) {
+        Map<String, String> headers = new HashMap<>();
+        for (Map.Entry<String, List<String>> h : conn.getHeaderFields().entrySet()) {
+            String name = h.getKey();
+            if (name == null || h.getValue().isEmpty()
+                    || NOT_REPLAYED.contains(name.toLowerCase())) continue; // null = status line
+            headers.put(name, String.join(", ", h.getValue()));
+        }
+        return headers;
+    }
+
+    /** WebResourceResponse with status and headers; the reason phrase must not be empty. */
+    private static WebResourceResponse response(String mime, String encoding, int code, String reason,
+                                                Map<String, String> headers, InputStream body) {
+        if (reason == null || reason.trim().isEmpty()) reason = code == 200 ? "OK" : "HTTP " + code;
+        return new WebResourceResponse(mime, encoding, code, reason, headers, body);
+    }
+
+    /** Responses larger than this are streamed through uncached. */
+    private int maxEntryBytes() {
+        return (int) Math.min(Integer.MAX_VALUE, maxBytes / 4);
+    }
+
+    private static String pathOf(String url) {
+        try {
+            return new URL(url).getPath();
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    private static byte[] readAll(InputStream in, int limit) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0 && out.size() < limit) out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+
+    /** {mime, charset} from a Content-Type header; charset may be null. */
+    private static String[] parseContentType(String contentType) {
+        if (contentType == null) return new String[]{"application/octet-stream", null};
+        String[] parts = contentType.split(";");
+        String charset = null;
+        for (int i = 1; i < parts.length; i++) {
+            String p = parts[i].trim();
+            if (p.toLowerCase().startsWith("charset=")) charset = p.substring(8).replace("\"", "");
+        }
+        return new String[]{parts[0].trim(), charset};
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // STORAGE
+    // ──────────────────────────────────────────────────────────────────────────
+
+    private synchronized Meta lookup(String url) {
+        loadIndex();
+        return index.get(url);
+    }
+
+    /** Opens the blob behind {@code m} and marks it used; null if it is gone. */
+    private WebResourceResponse serve(Meta m) {
+        File blob = new File(dir, m.hash);
+        try {
+            InputStream in = new FileInputStream(blob);
+            blob.setLastModified(System.currentTimeMillis());
+            return response(m.mime, m.encoding, HttpURLConnection.HTTP_OK, "OK", m.headers, in);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private synchronized void store(String url, Meta m, byte[] body) {
+        loadIndex();
+        if (!dir.isDirectory() && !dir.mkdirs()) return;
+        File blob = new File(dir, m.hash);
+        if (blob.isFile()) {
+            blob.setLastModified(System.currentTimeMillis());
+        } else {
+            File tmp = new File(dir, m.hash + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(body);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not cache " + url + ": " + e.getMessage());
+                tmp.delete();
+                return;
+            }
+            if (!tmp.renameTo(blob)) {
+                tmp.delete();
+                return;
+            }
+        }
+        dropOlderVersions(url, m.hash);
+        index.put(url, m);
+        evict();
+        saveIndexLater();
+    }
+
+    /** Drops the index entry of {@code url}; its blob goes when evicted. */
+    private synchronized void forget(String url) {
+        if (index.remove(url) != null) saveIndexLater();
+    }
+
+    /** A new hash of a bundle replaces the old one: forget it and free its blob. */
+    private void dropOlderVersions(String url, String hash) {
+        Matcher v = VERSIONED.matcher(pathOf(url));
+        if (!v.matches()) return;
+        String bundle = v.group(1);
+        for (Iterator<Map.Entry<String, Meta>> it = index.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Meta> e = it.next();
+            Matcher other = VERSIONED.matcher(pathOf(e.getKey()));
+            if (e.getKey().equals(url) || !other.matches() || !other.group(1).equals(bundle)) continue;
+            it.remove();
+            String old = e.getValue().hash;
+            if (old.equals(hash)) continue;
+            boolean shared = false;
+            for (Meta m : index.values()) shared |= m.hash.equals(old);
+            if (!shared) new File(dir, old).delete();
+            Log.d(TAG, "Bundle " + bundle + " changed, dropped " + e.getKey());
+        }
+    }
+
+    /** Deletes least recently used blobs past the size cap and forgets URLs pointing at them. */
+    private void evict() {
+        File[] blobs = dir.listFiles((d, name) -> name.length() == 64);
+        if (blobs == null) return;
+        long total = 0;
+        for (File f : blobs) total += f.length();
+        if (total <= maxBytes) return;
+
+        Arrays.sort(blobs, Comparator.comparingLong(File::lastModified));
+        for (File f : blobs) {
+            if (total <= maxBytes) break;
+            total -= f.length();
+            f.delete();
+        }
+        for (Iterator<Meta> it = index.values().iterator(); it.hasNext(); ) {
+            if (!new File(dir, it.next().hash).isFile()) it.remove();
+        }
+    }
+
+    private void loadIndex() {
+        if (loaded) return;
+        loaded = true;
+        File f = new File(dir, INDEX);
+        if (!f.isFile()) return;
+        try (FileInputStream in = new FileInputStream(f)) {
+            byte[] data = new byte[(int) f.length()];
+            int off = 0, n;
+            while (off < data.length && (n = in.read(data, off, data.length - off)) > 0) off += n;
+            JSONObject root = new JSONObject(new String(data, 0, off, StandardCharsets.UTF_8));
+            for (Iterator<String> it = root.keys(); it.hasNext(); ) {
+                String url = it.next();
+                JSONObject o = root.getJSONObject(url);
+                Meta m = new Meta();
+                m.hash = o.getString("hash");
+                m.mime = o.optString("mime", "application/octet-stream");
+                m.encoding = o.optString("encoding", null);
+                m.etag = o.optString("etag", null);
+                m.lastModified = o.optString("last_modified", null);
+                m.freshUntil = o.optLong("fresh_until", 0);
+                JSONObject headers = o.optJSONObject("headers");
+                if (headers != null) {
+                    for (Iterator<String> h = headers.keys(); h.hasNext(); ) {
+                        String name = h.next();
+                        m.headers.put(name, headers.getString(name));
+                    }
+                }
+                index.put(url, m);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Discarding corrupt asset index: " + e.getMessage());
+            index.clear();
+        }
+    }
+
+    /** Schedules one background write covering this and later changes. Caller holds the lock. */
+    private void saveIndexLater() {
+        if (savePending) return;
+        savePending = true;
+        BACKGROUND.schedule(this::saveIndex, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Writes the index as it is now. Background thread only, so writes never overlap. */
+    private void saveIndex() {
+        File tmp = new File(dir, INDEX + ".tmp");
+        try {
+            String json;
+            synchronized (this) {
+                savePending = false;
+                json = indexJson();
+            }
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(json.getBytes(StandardCharsets.UTF_8));
+            }
+            if (!tmp.renameTo(new File(dir, INDEX))) tmp.delete();
+        } catch (Exception e) {
+            Log.w(TAG, "Could not save asset index: " + e.getMessage());
+            tmp.delete();
+        }
+    }
+
+    private String indexJson() throws JSONException {
+        JSONObject root = new JSONObject();
+        for (Map.Entry<String, Meta> e : index.entrySet()) {
+            Meta m = e.getValue();
+            JSONObject o = new JSONObject();
+            o.put("hash", m.hash);
+            o.put("mime", m.mime);
+            if (m.encoding != null) o.put("encoding", m.encoding);
+            if (m.etag != null) o.put("etag", m.etag);
+            if (m.lastModified != null) o.put("last_modified", m.lastModified);
+            o.put("fresh_until", m.freshUntil);
+            o.put("headers", new JSONObject(m.headers));
+            root.put(e.getKey(), o);
+        }
+        return root.toString();
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (Exception e) {
+            throw new IllegalStateException(e); // SHA-256 is always available
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.turmer.fieldsales;
+
+import java.util.Arrays;
+
+/**
+ * Streaming raster band encoder with blank-row skipping.
+ *
+ * Reads rows straight out of a {@link RowSource} at any offset and packs them
+ * into one reusable band buffer. The buffer and the row scratch arrays only
+ * grow when a wider or taller band is requested, so steady-state printing
+ * allocates nothing per band.
+ *
+ * Receipts are mostly vertical whitespace, and a blank row still costs a full
+ * row of zero bytes (72 at 80 mm, 104 at 4 inch) on a slow Bluetooth link.
+ * Runs of at least {@link #MIN_BLANK_RUN} all-white rows are therefore cut
+ * out: the raster block is closed before the run, the run becomes paper feeds
+ * (ESC J n), and a new block starts after it. Blank runs are carried across
+ * band boundaries, so call {@link #reset()} before a job and {@link #finish()}
+ * after its last band.
+ *
+ * How each block and feed is spelled on the wire is up to the
+ * {@link RasterCommandSet} (GS v 0 by default).
+ */
+final class BandEncoder {
+
+    /** Anything that can hand out ARGB rows — a Bitmap, a tile, a plain int[] in tests. */
+    interface RowSource {
+        int width();
+        int height();
+        /** Copies row {@code y} into {@code dst[0 .. width)} as ARGB ints. */
+        void readRow(int y, int[] dst);
+    }
+
+    /**
+     * A source backed by an RGB_565 bitmap. Its raw 16-bit rows are thresholded
+     * through a lookup table instead of being widened to ARGB first.
+     */
+    interface Rgb565RowSource extends RowSource {
+        /** Copies row {@code y} into {@code dst[0 .. width)} as RGB_565 values. */
+        void readRow565(int y, short[] dst);
+    }
+
+    /**
+     * Shorter white gaps stay inside the raster block — splitting costs a
+     * header + feed (11 bytes) and a motor stop/start on some printers.
+     */
+    static final int MIN_BLANK_RUN = 8;
+
+    private int threshold;
+    private RasterCommandSet commandSet = new RasterCommandSet.GsV0();
+    private byte[] band = new byte[0];
+    private byte[] block = new byte[0];
+    private int[] row = new int[0];
+    private short[] row565 = new short[0];
+
+    // RGB_565 → dark/light for the current threshold, built on first 565 source
+    private byte[] darkTable565;
+
+    // Output state for the band being built; rows of the open block are packed
+    // into `block` and only spelled out by the command set when it closes
+    private int length;
+    private int bytesPerRow;
+    private int blockRows;
+
+    // Blank rows seen but not yet emitted (may span bands)
+    private int blankRun;
+
+    // Per-job accounting: plain banded GS v 0 cost vs what was actually produced
+    private long rawBytes;
+    private long encodedBytes;
+
+    BandEncoder() {
+        this(RasterEncoder.DEFAULT_THRESHOLD);
+    }
+
+    BandEncoder(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /** Luminance below which a dot is printed; takes effect for the next band. */
+    void setThreshold(int threshold) {
+        if (threshold == this.threshold) return;
+        this.threshold = threshold;
+        darkTable565 = null;
+    }
+
+    int threshold() {
+        return threshold;
+    }
+
+    /** Selects how blocks and feeds are written; takes effect for the next band. */
+    void setCommandSet(RasterCommandSet commandSet) {
+        this.commandSet = commandSet;
+    }
+
+    RasterCommandSet commandSet() {
+        return commandSet;
+    }
+
+    /** Starts a new job: forgets carried blank rows and clears the byte counters. */
+    void reset() {
+        blankRun = 0;
+        rawBytes = 0;
+        encodedBytes = 0;
+    }
+
+    /**
+     * Encodes rows {@code [y, y + rows)} of {@code src} into the band buffer.
+     * Trailing blank rows are held back until the next band or {@link #finish()}.
+     *
+     * @return number of valid bytes in {@link #buffer()} (may be 0 for an all-white band)
+     */
+    int encode(RowSource src, int y, int rows) {
+        int width = src.width();
+        bytesPerRow = RasterEncoder.bytesPerRow(width);
+
+        Rgb565RowSource src565 = src instanceof Rgb565RowSource ? (Rgb565RowSource) src : null;
+        if (src565 != null) {
+            if (row565.length < width) row565 = new short[width];
+            if (darkTable565 == null) darkTable565 = RasterEncoder.darkTable565(threshold);
+        } else if (row.length < width) {
+            row = new int[width];
+        }
+        int blockCapacity = (rows + MIN_BLANK_RUN) * bytesPerRow;
+        if (block.length < blockCapacity) block = new byte[blockCapacity];
+
+        length = 0;
+        blockRows = 0;
+        if (blankRun < MIN_BLANK_RUN) {
+            // A short gap carried over from the last band sits at the head of the block
+            Arrays.fill(block, 0, blankRun * bytesPerRow, (byte) 0);
+        }
+        for (int r = 0; r < rows; r++) {
+            // Pack behind any short gap so its zero rows stay in place; once the gap
+            // is long enough to be fed, it no longer needs room in the block
+            int at = (blankRun < MIN_BLANK_RUN ? blockRows + blankRun : blockRows) * bytesPerRow;
+            if (src565 != null) {
+                src565.readRow565(y + r, row565);
+                RasterEncoder.packRow565(row565, 0, width, block, at, darkTable565);
+            } else {
+                src.readRow(y + r, row);
+                RasterEncoder.packRow(row, 0, width, block, at, threshold);
+            }
+            if (isBlank(block, at, bytesPerRow)) {
+                blankRun++;
+                continue;
+            }
+            flushBlankRun();
+            if (at != blockRows * bytesPerRow) {
+                System.arraycopy(block, at, block, blockRows * bytesPerRow, bytesPerRow);
+            }
+            blockRows++;
+        }
+        closeBlock();
+
+        rawBytes += RasterEncoder.GS_V0_HEADER_SIZE + (long) bytesPerRow * rows;
+        encodedBytes += length;
+        return length;
+    }
+
+    /**
+     * Emits the blank rows still held back at the end of the job as paper feeds,
+     * so the printed length is unchanged.
+     *
+     * @return number of valid bytes in {@link #buffer()}
+     */
+    int finish() {
+        length = 0;
+        emitFeed(blankRun);
+        blankRun = 0;
+        encodedBytes += length;
+        return length;
+    }
+
+    /** The shared band buffer; only the first {@code encode()}/{@code finish()} bytes are valid. */
+    byte[] buffer() {
+        return band;
+    }
+
+    /** Bytes a plain banded GS v 0 stream would have needed for this job so far. */
+    long rawBytes() {
+        return rawBytes;
+    }
+
+    /** Bytes actually produced for this job so far. */
+    long encodedBytes() {
+        return encodedBytes;
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // BLOCK BUILDING
+    // ──────────────────────────────────────────────────────────────────────────
+
+    /** Pending blank rows before a dark row: feed them if long enough, else keep them as raster. */
+    private void flushBlankRun() {
+        if (blankRun == 0) return;
+        if (blankRun >= MIN_BLANK_RUN) {
+            closeBlock();
+            emitFeed(blankRun);
+        } else {
+            // Short gap: its rows were packed (all zero) right behind the block
+            blockRows += blankRun;
+        }
+        blankRun = 0;
+    }
+
+    private void closeBlock() {
+        if (blockRows == 0) return;
+        ensureCapacity(length + commandSet.maxBlockSize(bytesPerRow, blockRows));
+        length += commandSet.encodeBlock(block, 0, bytesPerRow, blockRows, band, length);
+        blockRows = 0;
+    }
+
+    private void emitFeed(int rows) {
+        if (rows <= 0) return;
+        ensureCapacity(length + commandSet.maxFeedSize(rows));
+        length += commandSet.encodeFeed(rows, band, length);
+    }
+
+    private static boolean isBlank(byte[] data, int offset, int len) {
+        for (int i = offset, end = offset + len; i < end; i++) {
+            if (data[i] != 0) return false;
+        }
+        return true;
+    }
+
+    /** Grows the band buffer keeping what has been written so far. */
+    private void ensureCapacity(int capacity) {
+        if (band.length < capacity) band = Arrays.copyOf(band, Math.max(capacity, band.length * 2));
+    }
+}
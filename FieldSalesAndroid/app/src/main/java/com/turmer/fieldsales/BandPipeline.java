@@ -0,0 +1,150 @@
+package com.turmer.fieldsales;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Encode → transmit stage of the print pipeline.
+ *
+ * Bands are encoded on a dedicated thread while the caller (the print writer)
+ * is still pacing the previous band out over Bluetooth. The two are joined by
+ * a queue of at most {@link #DEPTH} encoded bands; band buffers are recycled,
+ * so memory stays bounded by the queue depth whatever the receipt length.
+ * Together with {@link WebViewTiles} rendering ahead on the UI thread this
+ * keeps all three stages busy at once.
+ */
+final class BandPipeline {
+
+    /** Encoded bands allowed to wait for the link. */
+    static final int DEPTH = 2;
+
+    /** Writes one encoded band; called on the caller's thread, in order. */
+    interface Sink {
+        void write(byte[] data, int length) throws IOException;
+    }
+
+    private static final class Band {
+        byte[] data = new byte[0];
+        int length;
+    }
+
+    // Marks the end of the job (or an encoder failure) in the band queue
+    private static final Band END = new Band();
+
+    private final BandEncoder encoder;
+    private final ExecutorService thread = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "print-encoder");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // DEPTH queued + one being written + one being filled
+    private final BlockingQueue<Band> free = new ArrayBlockingQueue<>(DEPTH + 2);
+
+    BandPipeline(BandEncoder encoder) {
+        this.encoder = encoder;
+        for (int i = 0; i < DEPTH + 2; i++) free.offer(new Band());
+    }
+
+    /**
+     * Encodes {@code src} in bands of {@code bandHeight} rows (plus the trailing
+     * feed from {@link BandEncoder#finish()}) and passes every non-empty band to
+     * {@code sink} as soon as it is ready. The encoder must already be reset.
+     * Encoder-thread time goes to {@code trace} if given.
+     *
+     * @throws IOException from the sink, or wrapping an encoder failure
+     */
+    void run(BandEncoder.RowSource src, int bandHeight, Sink sink, PrintStats.Job trace)
+            throws IOException {
+        BlockingQueue<Band> full = new ArrayBlockingQueue<>(DEPTH);
+        Throwable[] failure = new Throwable[1];
+
+        Future<?> job = thread.submit(() -> {
+            try {
+                long busyNs = 0;
+                try {
+                    int h = src.height();
+                    for (int y = 0; y < h; y += bandHeight) {
+                        long t0 = System.nanoTime();
+                        int length = encoder.encode(src, y, Math.min(bandHeight, h - y));
+                        busyNs += System.nanoTime() - t0;
+                        hand(full, length); // time blocked on a full queue is not encoding
+                    }
+                    hand(full, encoder.finish());
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Throwable t) {
+                    failure[0] = t;
+                }
+                if (trace != null) trace.add(PrintStats.ENCODE, busyNs);
+                full.put(END);
+            } catch (InterruptedException ignored) {
+                // Writer gave up; nobody is listening
+            }
+        });
+
+        try {
+            while (true) {
+                Band b = full.take();
+                if (b == END) break;
+                try {
+                    sink.write(b.data, b.length);
+                } finally {
+                    free.offer(b);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while printing", e);
+        } finally {
+            // Sink failed or we were interrupted: stop the encoder, wait until it has
+            // let go of the shared BandEncoder, then take back its buffers
+            job.cancel(true);
+            awaitIdle();
+            Band b;
+            while ((b = full.poll()) != null) if (b != END) free.offer(b);
+        }
+
+        if (failure[0] != null) throw new IOException("Encoding failed", failure[0]);
+    }
+
+    /** Stops the encoder thread for good. The pipeline can't run jobs afterwards. */
+    void close() {
+        thread.shutdownNow();
+    }
+
+    /** Returns once every task on the encoder thread has finished or been skipped. */
+    private void awaitIdle() {
+        boolean interrupted = Thread.interrupted();
+        while (true) {
+            try {
+                thread.submit(() -> {}).get(); // single thread: runs after the job
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (Exception e) {
+                break; // executor shut down
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /** Copies the encoder's current output into a recycled band and queues it. */
+    private void hand(BlockingQueue<Band> full, int length) throws InterruptedException {
+        if (length == 0) return;
+        Band b = free.take();
+        if (b.data.length < length) b.data = new byte[length];
+        System.arraycopy(encoder.buffer(), 0, b.data, 0, length);
+        b.length = length;
+        try {
+            full.put(b);
+        } catch (InterruptedException e) {
+            free.offer(b);
+            throw e;
+        }
+    }
+}
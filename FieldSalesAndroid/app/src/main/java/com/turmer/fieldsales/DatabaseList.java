@@ -0,0 +1,148 @@
+package com.turmer.fieldsales;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The databases of each Odoo server, cached for {@link #TTL_MS} so tapping
+ * Login costs a single authenticate round-trip.
+ *
+ * {@link #prefetch} is called as soon as the server is known (login screen
+ * shown with a saved URL). It fetches {@code /web/database/list} in the
+ * background when the cached list is missing or stale, or otherwise makes a
+ * cheap public call, either way leaving a warm (DNS resolved, TLS resumed,
+ * keep-alive) connection in {@link HttpClient}'s pool for authenticate.
+ * {@link #get} then returns the cached list, joins the in-flight fetch, or
+ * fetches on the spot.
+ *
+ * Lists live in the app's SharedPreferences under {@code db_list:<base url>}.
+ * Empty lists (listing disabled on the server) are not cached.
+ */
+final class DatabaseList {
+
+    private static final String TAG = "DatabaseList";
+
+    /** How long a fetched list is trusted. */
+    static final long TTL_MS = 12 * 60 * 60 * 1000L;
+
+    private static final int TIMEOUT_MS = 10000;
+    private static final String KEY_PREFIX = "db_list:";
+
+    private static final ExecutorService BACKGROUND = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "login-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Fetches started by prefetch, by base URL. */
+    private static final Map<String, Future<List<String>>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    private final SharedPreferences prefs;
+
+    DatabaseList(SharedPreferences prefs) {
+        this.prefs = prefs;
+    }
+
+    /** Warms the connection to {@code baseUrl} and refreshes its list if stale. */
+    void prefetch(String baseUrl) {
+        if (cached(baseUrl) != null) {
+            BACKGROUND.execute(() -> warmUp(baseUrl));
+            return;
+        }
+        Future<List<String>> pending = IN_FLIGHT.get(baseUrl);
+        if (pending != null && !pending.isDone()) return;
+        IN_FLIGHT.put(baseUrl, BACKGROUND.submit(() -> fetch(baseUrl)));
+    }
+
+    /**
+     * The databases on {@code baseUrl}; empty when the server doesn't list
+     * them. Blocks on the network unless a fresh list is cached.
+     */
+    List<String> get(String baseUrl) throws Exception {
+        List<String> dbs = cached(baseUrl);
+        if (dbs != null) return dbs;
+        Future<List<String>> pending = IN_FLIGHT.remove(baseUrl);
+        if (pending != null) {
+            try {
+                return pending.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                Log.w(TAG, "Prefetch failed, retrying: " + e.getCause());
+            }
+        }
+        return fetch(baseUrl);
+    }
+
+    /** Forgets the list of {@code baseUrl} (e.g. a database was dropped). */
+    void invalidate(String baseUrl) {
+        prefs.edit().remove(KEY_PREFIX + baseUrl).apply();
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // HELPERS
+    // ──────────────────────────────────────────────────────────────────────────
+
+    private List<String> fetch(String baseUrl) throws Exception {
+        HttpClient.JsonResponse resp = HttpClient.postJson(
+                baseUrl + "/web/database/list", rpc(), TIMEOUT_MS);
+        JSONArray result = resp.body.optJSONArray("result");
+        if (result == null || result.length() == 0) return Collections.emptyList();
+
+        List<String> dbs = new ArrayList<>();
+        for (int i = 0; i < result.length(); i++) dbs.add(result.getString(i));
+        JSONObject entry = new JSONObject();
+        entry.put("at", System.currentTimeMillis());
+        entry.put("dbs", result);
+        prefs.edit().putString(KEY_PREFIX + baseUrl, entry.toString()).apply();
+        return dbs;
+    }
+
+    /** A fresh cached list, or null. */
+    private List<String> cached(String baseUrl) {
+        String raw = prefs.getString(KEY_PREFIX + baseUrl, null);
+        if (raw == null) return null;
+        try {
+            JSONObject entry = new JSONObject(raw);
+            if (System.currentTimeMillis() - entry.getLong("at") > TTL_MS) return null;
+            JSONArray arr = entry.getJSONArray("dbs");
+            List<String> dbs = new ArrayList<>();
+            for (int i = 0; i < arr.length(); i++) dbs.add(arr.getString(i));
+            return dbs;
+        } catch (JSONException e) {
+            invalidate(baseUrl);
+            return null;
+        }
+    }
+
+    /** Opens a pooled connection with an unauthenticated call whose reply is ignored. */
+    private static void warmUp(String baseUrl) {
+        try {
+            HttpClient.postJson(baseUrl + "/web/webclient/version_info", rpc(), TIMEOUT_MS);
+        } catch (Exception e) {
+            Log.d(TAG, "Warm-up failed: " + e.getMessage());
+        }
+    }
+
+    private static JSONObject rpc() throws JSONException {
+        JSONObject body = new JSONObject();
+        body.put("jsonrpc", "2.0");
+        body.put("method", "call");
+        body.put("id", 1);
+        body.put("params", new JSONObject());
+        return body;
+    }
+}
@@ -7,14 +7,23 @@ import android.bluetooth.BluetoothSocket;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.graphics.Bitmap;
-import android.graphics.Color;
+import android.graphics.Canvas;
 import android.util.Log;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Method;
+import java.nio.ShortBuffer;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 public class EscPosPrinter {
 
@@ -23,10 +32,74 @@ public class EscPosPrinter {
     private static final UUID SPP_UUID =
             UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
 
+    // Drain detection: status round-trip timeout, and the tail used when a printer
+    // never answers (estimated transmit time + margin, capped at the old 2.5s sleep)
+    private static final long DRAIN_TIMEOUT_MS = 2000;
+    private static final long FALLBACK_TAIL_NS = 300_000_000L;
+    private static final long MAX_TAIL_NS = 2_500_000_000L;
+
+    // Connect strategies, in the order they are tried for an unknown printer
+    private static final int STRATEGY_SECURE = 0;
+    private static final int STRATEGY_INSECURE = 1;
+    private static final int STRATEGY_CHANNEL_1 = 2;
+
+    // Keep the session open this long after the last job
+    private static final long IDLE_TIMEOUT_MS = 120_000;
+
+    // Calibration: strip height and the chunk sizes tried, smallest first
+    private static final int CALIBRATION_ROWS = 48;
+    private static final int[] CALIBRATION_CHUNKS = {256, 512, 1024, 2048, 4096};
+
     private final BluetoothAdapter bluetoothAdapter;
     private BluetoothSocket socket;
     private OutputStream outputStream;
     private final Context context;
+    private BluetoothDevice device;
+
+    // Idle-close timer for the persistent session (daemon thread, one per printer,
+    // stopped by shutdown())
+    private final ScheduledExecutorService idleTimer =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "printer-idle");
+                t.setDaemon(true);
+                return t;
+            });
+    private ScheduledFuture<?> idleClose;
+
+    // Raster bytes avoided by turning white rows into paper feeds in the last job
+    private long lastBytesSaved;
+
+    // Paced chunks written in this attempt — a job is only retried if none went out,
+    // so nothing the printer already printed is printed twice
+    private int chunksSent;
+
+    // Tuning for the printer we are connected to (rate, chunk size, band height)
+    private PrinterProfile profile = new PrinterProfile("");
+
+    // Band buffer + row scratch for the raster encoder (reused across bands and jobs)
+    private final BandEncoder bandEncoder = new BandEncoder();
+
+    // Encodes the next bands while the current one is on the air (stopped by shutdown())
+    private final BandPipeline bandPipeline = new BandPipeline(bandEncoder);
+
+    // Stage timings of the job being sent (set by PrintQueue), or null
+    private PrintStats.Job trace;
+
+    // Raster body of the last printRows job (prefix, bands, suffix), kept for JobCache
+    private final ByteArrayOutputStream lastJob = new ByteArrayOutputStream();
+    private String lastJobCommandSet;
+    private boolean recording;
+    private boolean lastJobComplete;
+
+    // ESC/POS text prefix marking a reprint: centred, bold, double size
+    private static final byte[] DUPLICATE_BANNER = {
+            0x1B, 0x61, 0x01,                        // ESC a 1 — centre
+            0x1D, 0x21, 0x11,                        // GS ! — double width + height
+            0x1B, 0x45, 0x01,                        // ESC E 1 — bold
+            '*', '*', ' ', 'D', 'U', 'P', 'L', 'I', 'C', 'A', 'T', 'E', ' ', '*', '*', 0x0A,
+            0x1B, 0x45, 0x00,                        // ESC E 0
+            0x1D, 0x21, 0x00                         // GS ! 0 — normal size
+    };
 
     public EscPosPrinter(Context context) {
         this.context = context;
@@ -38,7 +111,7 @@ public class EscPosPrinter {
     // ──────────────────────────────────────────────────────────────────────────
 
     @SuppressLint("MissingPermission")
-    public boolean connect() {
+    public synchronized boolean connect() {
 
         if (bluetoothAdapter == null) {
             Log.e(TAG, "Bluetooth not supported on this device");
@@ -54,6 +127,14 @@ public class EscPosPrinter {
                 context.getSharedPreferences("FieldSalesPrefs", Context.MODE_PRIVATE);
         String savedMac = prefs.getString("selected_printer_mac", "");
 
+        // ── Live session to the same printer — skip the connect entirely ──
+        if (isSessionAlive() && (savedMac.isEmpty() || savedMac.equalsIgnoreCase(profile.mac))) {
+            cancelIdleClose();
+            Log.d(TAG, "Reusing open session to " + profile.mac);
+            return true;
+        }
+        close(); // different printer selected, or a dead socket
+
         BluetoothDevice device = null;
 
         if (!savedMac.isEmpty()) {
@@ -79,53 +160,164 @@ public class EscPosPrinter {
             Log.d(TAG, "No saved MAC — using first paired device: " + device.getName());
         }
 
+        profile = PrinterProfile.load(context, device.getAddress());
+        Log.d(TAG, "Printer profile: " + profile);
+
+        this.device = device;
         return connectToDevice(device);
     }
 
-    @SuppressLint("MissingPermission")
+    /**
+     * Opens the socket, trying the strategy that worked last time for this MAC
+     * first. A printer that only answers on reflection channel 1 therefore stops
+     * paying for two failed connects on every print.
+     */
     private boolean connectToDevice(BluetoothDevice device) {
         // Cancel discovery to avoid slowing down connection
         bluetoothAdapter.cancelDiscovery();
 
-        // ── Attempt 1: Normal RFCOMM via SPP UUID ──
-        try {
-            socket = device.createRfcommSocketToServiceRecord(SPP_UUID);
-            socket.connect();
-            outputStream = socket.getOutputStream();
-            Log.d(TAG, "Connected via standard RFCOMM to: " + device.getName());
-            return true;
-        } catch (Exception e) {
-            Log.w(TAG, "Standard RFCOMM failed (" + e.getMessage() + "). Trying secure fallback...");
-            closeSocket();
-        }
+        int cached = profile.connectStrategy;
+        if (cached >= 0 && tryConnect(device, cached)) return true;
 
-        // ── Attempt 2: createInsecureRfcommSocketToServiceRecord (some printers need this) ──
-        try {
-            socket = device.createInsecureRfcommSocketToServiceRecord(SPP_UUID);
-            socket.connect();
-            outputStream = socket.getOutputStream();
-            Log.d(TAG, "Connected via insecure RFCOMM to: " + device.getName());
-            return true;
-        } catch (Exception e) {
-            Log.w(TAG, "Insecure RFCOMM failed (" + e.getMessage() + "). Trying reflection fallback...");
-            closeSocket();
+        for (int strategy = STRATEGY_SECURE; strategy <= STRATEGY_CHANNEL_1; strategy++) {
+            if (strategy == cached) continue;
+            if (tryConnect(device, strategy)) {
+                profile.connectStrategy = strategy;
+                profile.save(context);
+                return true;
+            }
         }
 
-        // ── Attempt 3: Reflection-based socket (fixes channel-mismatch on older printers) ──
+        Log.e(TAG, "All connection attempts failed for " + device.getAddress());
+        return false;
+    }
+
+    @SuppressLint("MissingPermission")
+    private boolean tryConnect(BluetoothDevice device, int strategy) {
         try {
-            Method m = device.getClass().getMethod("createRfcommSocket", int.class);
-            socket = (BluetoothSocket) m.invoke(device, 1); // channel 1
+            switch (strategy) {
+                case STRATEGY_SECURE:
+                    // ── Attempt 1: Normal RFCOMM via SPP UUID ──
+                    socket = device.createRfcommSocketToServiceRecord(SPP_UUID);
+                    break;
+                case STRATEGY_INSECURE:
+                    // ── Attempt 2: createInsecureRfcommSocketToServiceRecord (some printers need this) ──
+                    socket = device.createInsecureRfcommSocketToServiceRecord(SPP_UUID);
+                    break;
+                default:
+                    // ── Attempt 3: Reflection-based socket (fixes channel-mismatch on older printers) ──
+                    Method m = device.getClass().getMethod("createRfcommSocket", int.class);
+                    socket = (BluetoothSocket) m.invoke(device, 1); // channel 1
+                    break;
+            }
             socket.connect();
             outputStream = socket.getOutputStream();
-            Log.d(TAG, "Connected via reflection channel-1 to: " + device.getName());
+            Log.d(TAG, "Connected via " + strategyName(strategy) + " to: " + device.getName());
             return true;
         } catch (Exception e) {
-            Log.e(TAG, "All connection attempts failed: " + e.getMessage());
+            Log.w(TAG, strategyName(strategy) + " failed (" + e.getMessage() + ")");
             closeSocket();
             return false;
         }
     }
 
+    /** Raster bytes the last job did not have to send thanks to blank-row skipping. */
+    public synchronized long getLastBytesSaved() {
+        return lastBytesSaved;
+    }
+
+    /** Human-readable name of the connect strategy used by the current session. */
+    public synchronized String getConnectStrategy() {
+        return strategyName(profile.connectStrategy);
+    }
+
+    /**
+     * Sets which raster command sets the current printer supports
+     * (comma-separated {@link RasterCommandSet} ids, preferred first) and saves
+     * it to its profile. Unknown ids are ignored; an empty list falls back to
+     * GS v 0. Jobs keep using the current set if it is still listed, otherwise
+     * the first one — {@link #compareCommandSets} picks by size.
+     */
+    public synchronized void setCommandSets(String csv) {
+        StringBuilder ids = new StringBuilder();
+        for (RasterCommandSet cs : RasterCommandSet.parse(csv)) {
+            if (ids.length() > 0) ids.append(',');
+            ids.append(cs.id());
+        }
+        profile.commandSets = ids.toString();
+        if (!profile.supports(profile.commandSet)) {
+            profile.commandSet = RasterCommandSet.parse(profile.commandSets).get(0).id();
+        }
+        profile.save(context);
+        Log.d(TAG, "Raster command sets for " + profile.mac + ": " + profile.commandSets
+                + ", using " + profile.commandSet);
+    }
+
+    /**
+     * Bytes on the wire for {@code bitmap} (a typical receipt) under every
+     * known command set, with the current band height and blank-row skipping.
+     * The cheapest set enabled for the printer becomes the one all its jobs
+     * are encoded with, so the comparison is made once at setup rather than
+     * per job. Nothing is sent.
+     */
+    public synchronized Map<String, Long> compareCommandSets(Bitmap bitmap) {
+        BandEncoder.RowSource rows = rowsOf(bitmap);
+        bandEncoder.setThreshold(profile.threshold);
+        Map<String, Long> sizes = RasterCommandSet.compare(RasterCommandSet.all(),
+                bandEncoder, rows, profile.bandHeight);
+        Log.d(TAG, "Raster bytes per command set: " + sizes);
+
+        RasterCommandSet best = RasterCommandSet.cheapest(
+                RasterCommandSet.parse(profile.commandSets), bandEncoder, rows, profile.bandHeight);
+        profile.commandSet = best.id();
+        profile.save(context);
+        Log.d(TAG, "Raster command set for " + profile.mac + ": " + profile.commandSet);
+        return sizes;
+    }
+
+    /**
+     * Sets the luminance (0–255) below which the current printer prints a dot
+     * and saves it to its profile. Lower = lighter print, higher = darker.
+     */
+    public synchronized void setThreshold(int threshold) {
+        profile.threshold = Math.max(1, Math.min(255, threshold));
+        profile.save(context);
+        Log.d(TAG, "Threshold for " + profile.mac + ": " + profile.threshold);
+    }
+
+    /** Job whose transmit / drain timings and bytes are recorded; null to stop. */
+    synchronized void trace(PrintStats.Job job) {
+        trace = job;
+    }
+
+    /** Print head density of this printer; HTML receipts are rendered at it. */
+    public synchronized void setDpi(int dpi) {
+        profile.dpi = dpi >= 250 ? 300 : PrinterProfile.DEFAULT_DPI;
+        profile.save(context);
+        Log.d(TAG, "Resolution for " + profile.mac + ": " + profile.dpi + " dpi");
+    }
+
+    private static String strategyName(int strategy) {
+        switch (strategy) {
+            case STRATEGY_SECURE:    return "standard RFCOMM";
+            case STRATEGY_INSECURE:  return "insecure RFCOMM";
+            case STRATEGY_CHANNEL_1: return "reflection channel-1";
+            default:                 return "none";
+        }
+    }
+
+    private boolean isSessionAlive() {
+        return socket != null && outputStream != null && socket.isConnected();
+    }
+
+    /** Drops a broken socket and reconnects to the same printer with its cached strategy. */
+    private boolean reconnect() {
+        closeSocket();
+        if (device == null) return false;
+        Log.d(TAG, "Reconnecting to " + device.getAddress());
+        return connectToDevice(device);
+    }
+
     private void closeSocket() {
         try {
             if (socket != null) socket.close();
@@ -134,81 +326,531 @@ public class EscPosPrinter {
         outputStream = null;
     }
 
+    // ──────────────────────────────────────────────────────────────────────────
+    // SESSION — keep the link open between jobs, close after IDLE_TIMEOUT_MS
+    // ──────────────────────────────────────────────────────────────────────────
+
+    /**
+     * Ends a print job but keeps the Bluetooth session open so the next receipt
+     * skips the connect. The socket is closed if nothing else is printed within
+     * {@link #IDLE_TIMEOUT_MS}.
+     */
+    public synchronized void release() {
+        cancelIdleClose();
+        if (!isSessionAlive()) return;
+        idleClose = idleTimer.schedule(this::closeIfIdle, IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void closeIfIdle() {
+        if (idleClose == null) return; // a new job re-armed or cancelled the timer
+        idleClose = null;
+        Log.d(TAG, "Closing idle printer session");
+        closeSocket();
+    }
+
+    private void cancelIdleClose() {
+        if (idleClose != null) {
+            idleClose.cancel(false);
+            idleClose = null;
+        }
+    }
+
     // ──────────────────────────────────────────────────────────────────────────
     // PRINT BITMAP — universal ESC/POS raster bitmap command (GS v 0)
     // Works on HPRT, Epson, Star, Bixolon, Rongta, Xprinter, and generic printers
     // ──────────────────────────────────────────────────────────────────────────
 
-    public void printBitmap(Bitmap bitmap) {
+    /**
+     * Prints a bitmap over the current session.
+     *
+     * If the session turns out to be dead before any raster band went out
+     * (printer switched off and on between receipts, link dropped while idle),
+     * the socket is reopened and the job is sent once more.
+     *
+     * @return true once the printer has confirmed (or, without status support,
+     *         is estimated to have received) the whole job
+     */
+    public synchronized boolean printBitmap(Bitmap bitmap) {
+        return printRows(rowsOf(bitmap));
+    }
 
-        if (outputStream == null) {
-            Log.e(TAG, "Not connected — outputStream is null");
+    /**
+     * Prints any row source — a bitmap, or a long receipt rendered tile by tile
+     * (rows are pulled band by band, so the whole image never has to exist).
+     */
+    synchronized boolean printRows(BandEncoder.RowSource rows) {
+        return printRows(rows, false);
+    }
+
+    /** Like {@link #printRows(BandEncoder.RowSource)}, optionally under a "DUPLICATE" banner. */
+    synchronized boolean printRows(BandEncoder.RowSource rows, boolean duplicate) {
+        return transmit(() -> sendRows(rows, duplicate));
+    }
+
+    /**
+     * Raster body of the last successful {@link #printRows} job, for
+     * {@link JobCache}; null if it failed or was too large to keep.
+     */
+    synchronized JobCache.Entry lastJob() {
+        if (!lastJobComplete) return null;
+        return new JobCache.Entry(lastJobCommandSet, lastJob.toByteArray());
+    }
+
+    /**
+     * Prints several documents back to back over the current session: each one
+     * cut off on its own, but one connection, one pacing budget and a single
+     * drain wait at the end of the batch. Documents are pulled from
+     * {@code docs} only when the previous one has gone out, so the caller can
+     * render them one at a time.
+     */
+    synchronized boolean printBatch(Iterator<BandEncoder.RowSource> docs) {
+        BandEncoder.RowSource[] current = new BandEncoder.RowSource[1];
+        return transmit(() -> sendBatch(docs, current));
+    }
+
+    /** Whether the connected printer is set up for raster command set {@code id}. */
+    synchronized boolean accepts(String id) {
+        return profile.supports(id);
+    }
+
+    /**
+     * Replays a cached raster job {@code copies} times without rendering or
+     * encoding anything, each copy cut separately. With {@code duplicate} every
+     * copy is headed by a small "DUPLICATE" text banner.
+     *
+     * @return false if the printer no longer accepts the job's command set
+     *         (the caller should render again) or the job failed
+     */
+    synchronized boolean printCached(JobCache.Entry job, int copies, boolean duplicate) {
+        if (!accepts(job.commandSet)) {
+            Log.w(TAG, "Cached job uses " + job.commandSet + ", not enabled for " + profile.mac);
+            return false;
+        }
+        return transmit(() -> sendCached(job.body, Math.max(1, copies), duplicate));
+    }
+
+    /**
+     * Sends a ready-made ESC/POS job (e.g. from {@link ReceiptEncoder}) with the
+     * same pacing, drain detection and stale-session retry as a bitmap.
+     */
+    public synchronized boolean printRaw(byte[] data) {
+        return transmit(() -> sendRaw(null, data));
+    }
+
+    /**
+     * Like {@link #printRaw} with a logo printed first. On printers that take
+     * GS ( L graphics the logo comes out of NV memory (uploaded only when it
+     * changed); elsewhere it is sent as raster.
+     */
+    public synchronized boolean printRaw(Bitmap logo, byte[] data) {
+        return transmit(() -> sendRaw(logo, data));
+    }
+
+    /** One attempt at putting a job on the wire. */
+    private interface Transmission {
+        void send() throws IOException;
+    }
+
+    private boolean transmit(Transmission job) {
+        cancelIdleClose();
+        for (int attempt = 0; ; attempt++) {
+            if (outputStream == null && (attempt > 0 || !reconnect())) {
+                Log.e(TAG, "Not connected — outputStream is null");
+                return false;
+            }
+            chunksSent = 0;
+            try {
+                job.send();
+                return true;
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to send print data", e);
+                closeSocket();
+                if (attempt > 0 || chunksSent > 0 || !reconnect()) return false;
+                Log.d(TAG, "Session was stale — resending job on a fresh connection");
+            }
+        }
+    }
+
+    private void sendRaw(Bitmap logo, byte[] data) throws IOException {
+        PacingController pacer = new PacingController(profile.bytesPerSecond, profile.chunkSize);
+        if (logo != null) sendLogo(logo, pacer);
+        writePaced(data, 0, data.length, pacer);
+        awaitDrain(pacer, System.nanoTime());
+        Log.d(TAG, "Text job sent successfully, " + data.length + " bytes");
+    }
+
+    private void sendRows(BandEncoder.RowSource rows, boolean duplicate) throws IOException {
+        PacingController pacer = new PacingController(profile.bytesPerSecond, profile.chunkSize);
+        RasterCommandSet commandSet = writeDocument(rows, duplicate, pacer);
+        long sendEndNs = System.nanoTime();
+
+        // ── CRITICAL: Wait for Bluetooth buffer to clear ──
+        // Even though we call flush(), the Android Bluetooth socket can drop
+        // unsent bytes if it is closed immediately. Instead of a fixed 2.5s
+        // sleep we wait for a status round-trip, which proves every byte
+        // before it has reached the printer.
+        awaitDrain(pacer, sendEndNs);
+
+        Log.d(TAG, "Print job sent successfully. Total height: " + rows.height()
+                + ", " + pacer.bytesSent() + " bytes via " + commandSet.id()
+                + ", blank-row skipping saved " + lastBytesSaved
+                + " of " + bandEncoder.rawBytes() + " raster bytes");
+        lastJobComplete = recording;
+    }
+
+    private void sendBatch(Iterator<BandEncoder.RowSource> docs, BandEncoder.RowSource[] current)
+            throws IOException {
+        PacingController pacer = new PacingController(profile.bytesPerSecond, profile.chunkSize);
+        int count = 0;
+        while (current[0] != null || docs.hasNext()) {
+            // current[0] survives a stale-session retry, so no document is skipped
+            if (current[0] == null) {
+                try {
+                    current[0] = docs.next();
+                } catch (RuntimeException e) {
+                    throw new IOException("Could not render document " + (count + 1), e);
+                }
+            }
+            writeDocument(current[0], false, pacer);
+            current[0] = null;
+            count++;
+        }
+        awaitDrain(pacer, System.nanoTime());
+        Log.d(TAG, "Batch of " + count + " documents sent, " + pacer.bytesSent() + " bytes");
+    }
+
+    /**
+     * Header, raster bands and cut for one document, paced but without waiting
+     * for the printer to drain.
+     *
+     * @return the command set the bands were encoded with
+     */
+    private RasterCommandSet writeDocument(BandEncoder.RowSource rows, boolean duplicate,
+                                           PacingController pacer) throws IOException {
+        writeRasterHeader(duplicate);
+
+        // ── BANDED PRINTING — critical for Bixolon and mobile BT printers ──
+        // Mobile printers have very small image buffers. A single GS v 0 command
+        // with a height > 255 or > 512 often causes the printer to hang (blue light flashes
+        // but nothing prints). We slice the image into bands (200 rows until the
+        // printer profile has been calibrated).
+        final int BAND_HEIGHT = profile.bandHeight;
+
+        // Rows are read straight out of the source into one reusable band
+        // buffer — no per-band Bitmap.createBitmap() copy and no per-band byte[].
+        bandEncoder.setThreshold(profile.threshold);
+
+        // The command set chosen for this printer at setup (compareCommandSets);
+        // comparing per job would read every row once more per candidate
+        RasterCommandSet commandSet = RasterCommandSet.forId(profile.commandSet);
+        bandEncoder.setCommandSet(commandSet);
+        if (trace != null) trace.commandSet = commandSet.id();
+        bandEncoder.reset();
+
+        // Everything between header and trailer is recorded for reprints
+        lastJob.reset();
+        lastJobCommandSet = commandSet.id();
+        lastJobComplete = false;
+        recording = true;
+        writeRecorded(commandSet.jobPrefix(), commandSet.jobPrefix().length, pacer);
+
+        // Bands are encoded (white runs become ESC J feeds) on the encoder thread
+        // while the previous band is still being paced out here; the final
+        // band feeds out any white rows still held back
+        bandPipeline.run(rows, BAND_HEIGHT, (data, length) -> writeRecorded(data, length, pacer), trace);
+        writeRecorded(commandSet.jobSuffix(), commandSet.jobSuffix().length, pacer);
+        lastBytesSaved = bandEncoder.rawBytes() - bandEncoder.encodedBytes();
+
+        writeRasterTrailer();
+        return commandSet;
+    }
+
+    private void sendCached(byte[] body, int copies, boolean duplicate) throws IOException {
+        PacingController pacer = new PacingController(profile.bytesPerSecond, profile.chunkSize);
+        for (int i = 0; i < copies; i++) {
+            writeRasterHeader(duplicate);
+            writePaced(body, 0, body.length, pacer);
+            writeRasterTrailer();
+        }
+        awaitDrain(pacer, System.nanoTime());
+        Log.d(TAG, "Cached job replayed: " + copies + " x " + body.length + " bytes"
+                + (duplicate ? " (duplicate)" : ""));
+    }
+
+    private void writeRasterHeader(boolean duplicate) throws IOException {
+        // ESC @ — Initialize printer
+        outputStream.write(new byte[]{0x1B, 0x40});
+        outputStream.flush();
+
+        // Reprint marker, printed as text before line spacing drops to 0
+        if (duplicate) outputStream.write(DUPLICATE_BANNER);
+
+        // ESC a 1 — Center align (fixes centering on 4-inch printers with 3-inch prints)
+        outputStream.write(new byte[]{0x1B, 0x61, 0x01});
+        outputStream.flush();
+
+        // ESC 3 0 — Set line spacing to 0 for seamless band printing
+        outputStream.write(new byte[]{0x1B, 0x33, 0x00});
+        outputStream.flush();
+    }
+
+    private void writeRasterTrailer() throws IOException {
+        // ESC 2 — Reset line spacing to default
+        outputStream.write(new byte[]{0x1B, 0x32});
+        outputStream.flush();
+
+        // Feed 2 lines then full cut
+        outputStream.write(new byte[]{
+                0x0A, 0x0A,                          // 2x line feed
+                0x1D, 0x56, 0x42, 0x00               // Full cut
+        });
+        outputStream.flush();
+    }
+
+    /** Paces {@code data} out and keeps a copy for {@link #lastJob}, up to the cache's entry limit. */
+    private void writeRecorded(byte[] data, int length, PacingController pacer) throws IOException {
+        writePaced(data, 0, length, pacer);
+        if (!recording) return;
+        if (lastJob.size() + length <= JobCache.MAX_ENTRY_BYTES) {
+            lastJob.write(data, 0, length);
+        } else {
+            recording = false; // too long to cache — drop what we have
+            lastJob.reset();
+        }
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // NV LOGO — upload once per printer, then print by key
+    // ──────────────────────────────────────────────────────────────────────────
+
+    private void sendLogo(Bitmap logo, PacingController pacer) throws IOException {
+        int width = logo.getWidth();
+        int height = logo.getHeight();
+        int bytesPerRow = RasterEncoder.bytesPerRow(width);
+        int[] argb = new int[width * height];
+        logo.getPixels(argb, 0, width, 0, 0, width, height);
+        byte[] image = RasterEncoder.encode(argb, width, height, profile.threshold);
+
+        // ESC @, ESC a 1 — logo centred like the HTML receipts
+        byte[] init = {0x1B, 0x40, 0x1B, 0x61, 0x01};
+        writePaced(init, 0, init.length, pacer);
+
+        // NV uploads must be confirmed before the hash is trusted, so printers that
+        // can't answer DLE EOT get the logo as raster every time instead
+        boolean nv = profile.supportsNvGraphics()
+                && profile.statusSupport == PrinterProfile.STATUS_OK
+                && width <= NvLogo.MAX_WIDTH_DOTS && height <= NvLogo.MAX_HEIGHT_DOTS;
+        if (!nv) {
+            // Plain GS v 0, as printHtml would send it
+            writePaced(image, 0, image.length, pacer);
             return;
         }
 
+        String hash = NvLogo.hash(image, RasterEncoder.GS_V0_HEADER_SIZE, bytesPerRow, height);
+        if (!hash.equals(profile.logoHash)) {
+            byte[] define = NvLogo.define(image, RasterEncoder.GS_V0_HEADER_SIZE, bytesPerRow, height);
+            writePaced(define, 0, define.length, pacer);
+            // The printer is busy writing flash; only a status round-trip proves it
+            // took the data, and only then is the hash recorded
+            if (requestStatus(DRAIN_TIMEOUT_MS) < 0) {
+                profile.logoHash = "";
+                profile.save(context);
+                throw new IOException("Printer did not confirm the logo upload");
+            }
+            profile.logoHash = hash;
+            profile.save(context);
+            Log.d(TAG, "Logo stored in NV memory of " + profile.mac + " (" + define.length + " bytes)");
+        }
+        byte[] print = NvLogo.print();
+        writePaced(print, 0, print.length, pacer);
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // PACING — chunked writes at the printer's learned sustainable rate
+    // ──────────────────────────────────────────────────────────────────────────
+
+    private void writePaced(byte[] data, int offset, int length, PacingController pacer)
+            throws IOException {
+        // ── CHUNKED WRITE — prevent Bluetooth transport buffer overflow ──
+        final int CHUNK_SIZE = Math.max(64, profile.chunkSize);
+        long startNs = System.nanoTime();
+        int end = offset + length;
+        while (offset < end) {
+            int n = Math.min(CHUNK_SIZE, end - offset);
+            sleepNanos(pacer.reserve(n, System.nanoTime()));
+            outputStream.write(data, offset, n);
+            outputStream.flush();
+            chunksSent++;
+            offset += n;
+        }
+        if (trace != null) {
+            trace.add(PrintStats.TRANSMIT, System.nanoTime() - startNs);
+            trace.addBytes(length);
+        }
+    }
+
+    /**
+     * Waits until the printer has received everything written so far, then
+     * folds the measured drain time back into the printer profile.
+     */
+    private void awaitDrain(PacingController pacer, long sendEndNs) throws IOException {
+        long waitStartNs = System.nanoTime();
+        long drainNs = -1;
+        if (profile.statusSupport != PrinterProfile.STATUS_NONE) {
+            long timeoutMs = DRAIN_TIMEOUT_MS
+                    + 2 * pacer.estimatedRemainingNs(System.nanoTime(),
+                            PrinterProfile.DEFAULT_BYTES_PER_SECOND) / 1_000_000L;
+            if (requestStatus(timeoutMs) >= 0) {
+                drainNs = System.nanoTime() - pacer.startNs();
+                profile.statusSupport = PrinterProfile.STATUS_OK;
+            } else if (profile.statusSupport == PrinterProfile.STATUS_UNKNOWN) {
+                Log.w(TAG, "Printer does not answer DLE EOT — using estimated drain time");
+                profile.statusSupport = PrinterProfile.STATUS_NONE;
+            }
+        }
+
+        if (drainNs < 0) {
+            // No status channel: wait for the estimated transmit time, never longer
+            // than the old fixed 2.5s tail.
+            long waitNs = pacer.estimatedRemainingNs(System.nanoTime(),
+                    PrinterProfile.DEFAULT_BYTES_PER_SECOND) + FALLBACK_TAIL_NS;
+            sleepNanos(Math.min(waitNs, MAX_TAIL_NS));
+        }
+        if (trace != null) trace.add(PrintStats.DRAIN, System.nanoTime() - waitStartNs);
+
+        // Only learn from printers that confirm receipt — a silent printer gives us
+        // nothing to measure, so its calibrated/default rate is kept as is.
+        if (profile.statusSupport == PrinterProfile.STATUS_OK) {
+            long sendNs = sendEndNs - pacer.startNs();
+            if (PacingController.isLearnable(pacer.bytesSent(), sendNs)) {
+                profile.cleanJobs = PacingController.keptUp(sendNs, drainNs) ? profile.cleanJobs + 1 : 0;
+            }
+            int learned = PacingController.learn(profile.bytesPerSecond, profile.rateCeiling(),
+                    profile.cleanJobs, pacer.bytesSent(), sendNs, drainNs);
+            if (learned != profile.bytesPerSecond) {
+                Log.d(TAG, "Pacing " + profile.bytesPerSecond + " → " + learned + " B/s");
+                if (learned > profile.bytesPerSecond) profile.cleanJobs = 0; // prove the new rate too
+                profile.bytesPerSecond = learned;
+            }
+        }
+        profile.save(context); // writes only if status support or rate changed
+    }
+
+    /**
+     * DLE EOT 1 — transmit printer status. Real-time command answered with one
+     * byte; since RFCOMM is in-order, the reply means every byte written before
+     * it has arrived at the printer.
+     *
+     * @return the status byte, or -1 if no valid reply arrived in time
+     */
+    private int requestStatus(long timeoutMs) throws IOException {
+        InputStream in = socket.getInputStream();
+        while (in.available() > 0) in.read(); // discard stale replies
+
+        outputStream.write(new byte[]{0x10, 0x04, 0x01});
+        outputStream.flush();
+
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+        while (System.nanoTime() < deadline) {
+            if (in.available() > 0) {
+                int status = in.read();
+                // Fixed bits of the printer-status byte: bit 1 and bit 4 set, 0 and 7 clear
+                if ((status & 0x93) == 0x12) return status;
+            } else {
+                sleepNanos(5_000_000L);
+            }
+        }
+        return -1;
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // CALIBRATION — short test strip to pick chunk size, rate and band height
+    // ──────────────────────────────────────────────────────────────────────────
+
+    /**
+     * Prints a short ruler strip a few times at full speed with increasing chunk
+     * sizes, timing each run with a status round-trip. The fastest size that
+     * still gets confirmed wins; the result is saved as this printer's profile.
+     *
+     * @param widthDots printable width in dots (384 / 576 / 832)
+     * @return false if not connected or the printer never answered
+     */
+    public synchronized boolean calibrate(int widthDots) {
+        if (outputStream == null) {
+            Log.e(TAG, "Not connected — outputStream is null");
+            return false;
+        }
         try {
             // ESC @ — Initialize printer
             outputStream.write(new byte[]{0x1B, 0x40});
             outputStream.flush();
 
-            // ESC a 1 — Center align (fixes centering on 4-inch printers with 3-inch prints)
-            outputStream.write(new byte[]{0x1B, 0x61, 0x01});
-            outputStream.flush();
+            if (requestStatus(DRAIN_TIMEOUT_MS) < 0) {
+                Log.w(TAG, "Calibration: printer does not answer DLE EOT, keeping defaults");
+                profile.statusSupport = PrinterProfile.STATUS_NONE;
+                profile.calibrated = true;
+                profile.save(context);
+                return false;
+            }
+            profile.statusSupport = PrinterProfile.STATUS_OK;
 
-            // ESC 3 0 — Set line spacing to 0 for seamless band printing
-            outputStream.write(new byte[]{0x1B, 0x33, 0x00});
-            outputStream.flush();
+            int bytesPerRow = RasterEncoder.bytesPerRow(widthDots);
+            byte[] strip = new byte[RasterEncoder.GS_V0_HEADER_SIZE + bytesPerRow * CALIBRATION_ROWS];
+            RasterEncoder.writeGsV0Header(strip, 0, bytesPerRow, CALIBRATION_ROWS);
+            for (int i = RasterEncoder.GS_V0_HEADER_SIZE; i < strip.length; i++) {
+                strip[i] = (byte) 0x80; // thin vertical ruler lines, barely any ink
+            }
 
-            int imgWidth = bitmap.getWidth();
-            int imgHeight = bitmap.getHeight();
-            
-            // ── BANDED PRINTING — critical for Bixolon and mobile BT printers ──
-            // Mobile printers have very small image buffers. A single GS v 0 command
-            // with a height > 255 or > 512 often causes the printer to hang (blue light flashes
-            // but nothing prints). We slice the image into 200-pixel tall bands.
-            final int BAND_HEIGHT = 200; 
-
-            for (int y = 0; y < imgHeight; y += BAND_HEIGHT) {
-                int currentBandHeight = Math.min(BAND_HEIGHT, imgHeight - y);
-                Bitmap band = Bitmap.createBitmap(bitmap, 0, y, imgWidth, currentBandHeight);
-                
-                // Encode this band to ESC/POS raster format
-                byte[] bandData = encodeBitmapToRaster(band);
-                band.recycle();
-
-                // ── CHUNKED WRITE — prevent Bluetooth transport buffer overflow ──
-                final int CHUNK_SIZE = 512;
-                int offset = 0;
-                while (offset < bandData.length) {
-                    int end = Math.min(offset + CHUNK_SIZE, bandData.length);
-                    outputStream.write(bandData, offset, end - offset);
+            int bestChunk = profile.chunkSize;
+            long bestRate = 0;
+            for (int chunk : CALIBRATION_CHUNKS) {
+                long t0 = System.nanoTime();
+                for (int off = 0; off < strip.length; off += chunk) {
+                    outputStream.write(strip, off, Math.min(chunk, strip.length - off));
                     outputStream.flush();
-                    offset = end;
-                    try { Thread.sleep(25); } catch (InterruptedException ignored) {} // Decreased speed for reliability
+                }
+                if (requestStatus(DRAIN_TIMEOUT_MS) < 0) break; // overran — stop escalating
+                long rate = strip.length * 1_000_000_000L / Math.max(1, System.nanoTime() - t0);
+                Log.d(TAG, "Calibration chunk " + chunk + ": " + rate + " B/s");
+                if (rate > bestRate + bestRate / 20) {
+                    bestRate = rate;
+                    bestChunk = chunk;
                 }
             }
 
-            // ESC 2 — Reset line spacing to default
-            outputStream.write(new byte[]{0x1B, 0x32});
-            outputStream.flush();
-
-            // Feed 2 lines then full cut
-            outputStream.write(new byte[]{
-                    0x0A, 0x0A,                          // 2x line feed
-                    0x1D, 0x56, 0x42, 0x00               // Full cut
-            });
+            // Feed past the strip
+            outputStream.write(new byte[]{0x0A, 0x0A, 0x0A});
             outputStream.flush();
 
-            // ── CRITICAL: Wait for Bluetooth buffer to clear ──
-            // Even though we call flush(), the Android Bluetooth socket can drop
-            // unsent bytes if it is closed immediately. Giving it 2.5s ensures the
-            // final QR code lines and paper feed actually make it over the air.
-            try { Thread.sleep(2500); } catch (InterruptedException ignored) {}
-
-            Log.d(TAG, "Print job sent successfully. Total height: " + imgHeight);
+            if (bestRate > 0) {
+                // The strip fits in the printer's buffer, so the burst rate flatters
+                // the mechanism — start at 3/4 and let real jobs refine it.
+                profile.bytesPerSecond = (int) Math.max(PacingController.MIN_BYTES_PER_SECOND,
+                        Math.min(PacingController.MAX_BYTES_PER_SECOND, bestRate * 3 / 4));
+                // Real jobs may learn their way up to the burst rate, never past it
+                profile.maxBytesPerSecond = (int) Math.max(profile.bytesPerSecond,
+                        Math.min(PacingController.MAX_BYTES_PER_SECOND, bestRate));
+                profile.cleanJobs = 0;
+                profile.chunkSize = bestChunk;
+                profile.bandHeight = PacingController.bandHeightFor(profile.bytesPerSecond, bytesPerRow);
+            }
+            profile.calibrated = true;
+            profile.save(context);
+            Log.d(TAG, "Calibrated: " + profile);
+            return bestRate > 0;
 
         } catch (IOException e) {
-            Log.e(TAG, "Failed to send print data", e);
+            Log.e(TAG, "Calibration failed", e);
+            return false;
+        }
+    }
+
+    private static void sleepNanos(long nanos) {
+        if (nanos <= 0) return;
+        try {
+            Thread.sleep(nanos / 1_000_000L, (int) (nanos % 1_000_000L));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -216,61 +858,113 @@ public class EscPosPrinter {
     // ESC/POS Raster Bitmap Encoder
     // GS v 0 m xL xH yL yH d1…dk
     //   m = 0 (normal density), xL/xH = bytes per row, yL/yH = rows
+    // Packing lives in BandEncoder / RasterEncoder (pure Java); these adapters
+    // only move pixels out of the Bitmap.
     // ──────────────────────────────────────────────────────────────────────────
 
-    private byte[] encodeBitmapToRaster(Bitmap bitmap) {
-
-        int width  = bitmap.getWidth();
-        int height = bitmap.getHeight();
-
-        // bytes per raster row (round up to byte boundary)
-        int bytesPerRow = (width + 7) / 8;
-
-        // Header: GS v 0 + 6 bytes header + pixel data
-        int dataLen = 8 + bytesPerRow * height;
-        byte[] data = new byte[dataLen];
-
-        // GS v 0 command header
-        data[0] = 0x1D;                          // GS
-        data[1] = 0x76;                          // v
-        data[2] = 0x30;                          // 0
-        data[3] = 0x00;                          // m = normal
-        data[4] = (byte) (bytesPerRow & 0xFF);   // xL
-        data[5] = (byte) (bytesPerRow >> 8);     // xH
-        data[6] = (byte) (height & 0xFF);        // yL
-        data[7] = (byte) (height >> 8);          // yH
-
-        // Pixel data: each bit = 1 if pixel is dark (<128 luminance)
-        int k = 8;
-        for (int y = 0; y < height; y++) {
-            for (int xByte = 0; xByte < bytesPerRow; xByte++) {
-                int b = 0;
-                for (int bit = 0; bit < 8; bit++) {
-                    int x = xByte * 8 + bit;
-                    if (x < width) {
-                        int pixel = bitmap.getPixel(x, y);
-                        int r = Color.red(pixel);
-                        int g = Color.green(pixel);
-                        int bl = Color.blue(pixel);
-                        // Luminance: dark pixel → print dot
-                        int gray = (77 * r + 150 * g + 29 * bl) >> 8; // perceptual weighting
-                        if (gray < 128) {
-                            b |= (1 << (7 - bit));
-                        }
-                    }
-                }
-                data[k++] = (byte) b;
+    /** RGB_565 receipts take the lookup-table path, anything else goes through ARGB. */
+    private static BandEncoder.RowSource rowsOf(Bitmap bitmap) {
+        if (bitmap.getConfig() == Bitmap.Config.RGB_565) return new Rgb565BitmapRows(bitmap);
+        return new BitmapRows(bitmap);
+    }
+
+    /**
+     * Serves raw 565 rows — no ARGB widening — out of a {@link #STRIP_ROWS}-row
+     * strip. copyPixelsToBuffer() can only copy a whole bitmap, so each strip
+     * is first blitted out of the receipt (565 → 565 Canvas draw, a plain copy)
+     * into a small strip bitmap; only a strip's worth of pixels is ever held
+     * outside the receipt.
+     */
+    private static final class Rgb565BitmapRows implements BandEncoder.Rgb565RowSource {
+        private static final int STRIP_ROWS = 64;
+
+        private final Bitmap bitmap;
+        private final int width;
+        private final int height;
+        private final int stripRows;
+        private Bitmap strip;        // created on first read
+        private Canvas canvas;
+        private short[] pixels;
+        private int stride;
+        private int top = -1;        // first receipt row held in the strip
+
+        Rgb565BitmapRows(Bitmap bitmap) {
+            this.bitmap = bitmap;
+            width = bitmap.getWidth();
+            height = bitmap.getHeight();
+            stripRows = Math.max(1, Math.min(STRIP_ROWS, height));
+        }
+
+        /** Index of row {@code y} in {@link #pixels}, loading its strip if needed. */
+        private int offsetOf(int y) {
+            if (strip == null) {
+                strip = Bitmap.createBitmap(width, stripRows, Bitmap.Config.RGB_565);
+                canvas = new Canvas(strip);
+                stride = strip.getRowBytes() / 2;
+                pixels = new short[stride * stripRows];
+            }
+            if (top < 0 || y < top || y >= top + stripRows) {
+                // Keep the strip inside the receipt so every strip row is overwritten
+                top = Math.min(y, height - stripRows);
+                canvas.drawBitmap(bitmap, 0, -top, null);
+                strip.copyPixelsToBuffer(ShortBuffer.wrap(pixels));
             }
+            return (y - top) * stride;
         }
 
-        return data;
+        @Override
+        public int width() {
+            return width;
+        }
+
+        @Override
+        public int height() {
+            return height;
+        }
+
+        @Override
+        public void readRow565(int y, short[] dst) {
+            int offset = offsetOf(y);
+            System.arraycopy(pixels, offset, dst, 0, width);
+        }
+
+        @Override
+        public void readRow(int y, int[] dst) {
+            int offset = offsetOf(y);
+            RasterEncoder.widenRow565(pixels, offset, width, dst);
+        }
+    }
+
+    private static final class BitmapRows implements BandEncoder.RowSource {
+        private final Bitmap bitmap;
+
+        BitmapRows(Bitmap bitmap) {
+            this.bitmap = bitmap;
+        }
+
+        @Override
+        public int width() {
+            return bitmap.getWidth();
+        }
+
+        @Override
+        public int height() {
+            return bitmap.getHeight();
+        }
+
+        @Override
+        public void readRow(int y, int[] dst) {
+            int w = bitmap.getWidth();
+            bitmap.getPixels(dst, 0, w, 0, y, w, 1);
+        }
     }
 
     // ──────────────────────────────────────────────────────────────────────────
     // CLOSE
     // ──────────────────────────────────────────────────────────────────────────
 
-    public void close() {
+    public synchronized void close() {
+        cancelIdleClose();
         try {
             if (outputStream != null) outputStream.close();
         } catch (IOException ignored) {}
@@ -280,4 +974,14 @@ public class EscPosPrinter {
         outputStream = null;
         socket = null;
     }
+
+    /**
+     * Closes the session and stops the printer's threads for good. The printer
+     * can't be used afterwards; call from the activity's teardown.
+     */
+    public synchronized void shutdown() {
+        close();
+        idleTimer.shutdownNow();
+        bandPipeline.close();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,176 @@
+package com.turmer.fieldsales;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * The HTTP client shared by all native networking: login, PDF share and the
+ * asset caches.
+ *
+ * Android's {@link HttpURLConnection} already keeps idle connections in a
+ * process-wide keep-alive pool and asks for gzip (decoding it transparently),
+ * but a connection only goes back to the pool once its body has been read to
+ * the end and closed — {@code disconnect()} or an abandoned stream throws the
+ * socket away. Callers therefore open connections through {@link #open} and
+ * finish them with {@link #readString}, {@link #body} + close, or
+ * {@link #discard}.
+ *
+ * All HTTPS connections use one {@link SSLSocketFactory}, so they share a
+ * pool and a TLS session cache: a new connection to the Odoo server (after
+ * the pool evicted an idle one) resumes the session instead of doing a full
+ * handshake.
+ */
+final class HttpClient {
+
+    private static final String TAG = "HttpClient";
+
+    static final int CONNECT_TIMEOUT_MS = 10000;
+    static final int READ_TIMEOUT_MS = 15000;
+
+    /** Read buffer for response bodies. */
+    static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final int TLS_SESSION_CACHE = 32;
+    private static final int TLS_SESSION_TIMEOUT_S = 24 * 60 * 60;
+
+    private static final SSLSocketFactory TLS = tlsFactory();
+
+    private HttpClient() {}
+
+    /** Status, every Set-Cookie header (in order) and parsed body of a JSON call. */
+    static final class JsonResponse {
+        final int code;
+        final List<String> cookies;
+        final JSONObject body;
+
+        JsonResponse(int code, List<String> cookies, JSONObject body) {
+            this.code = code;
+            this.cookies = cookies;
+            this.body = body;
+        }
+    }
+
+    /** A connection with the shared TLS factory and default timeouts, not yet connected. */
+    static HttpURLConnection open(String url) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        if (TLS != null && conn instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) conn).setSSLSocketFactory(TLS);
+        }
+        conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        conn.setReadTimeout(READ_TIMEOUT_MS);
+        return conn;
+    }
+
+    /**
+     * POSTs {@code body} as JSON and parses the JSON reply (error bodies
+     * included — Odoo reports RPC errors with a 200 or 500 JSON body).
+     */
+    static JsonResponse postJson(String url, JSONObject body, int timeoutMs)
+            throws IOException, JSONException {
+        return postJson(url, body, timeoutMs, null);
+    }
+
+    /** As {@link #postJson(String, JSONObject, int)}, sending {@code cookie} if not null. */
+    static JsonResponse postJson(String url, JSONObject body, int timeoutMs, String cookie)
+            throws IOException, JSONException {
+        HttpURLConnection conn = open(url);
+        if (cookie != null) conn.setRequestProperty("Cookie", cookie);
+        conn.setConnectTimeout(timeoutMs);
+        conn.setReadTimeout(timeoutMs);
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Content-Type", "application/json");
+        conn.setRequestProperty("Accept", "application/json");
+        byte[] payload = body.toString().getBytes(StandardCharsets.UTF_8);
+        conn.setDoOutput(true);
+        conn.setFixedLengthStreamingMode(payload.length);
+        try (OutputStream os = conn.getOutputStream()) {
+            os.write(payload);
+        }
+
+        int code = conn.getResponseCode();
+        List<String> cookies = headers(conn, "Set-Cookie");
+        return new JsonResponse(code, cookies, new JSONObject(readString(conn)));
+    }
+
+    /**
+     * The response body — or the error body for 4xx/5xx — as a stream. The
+     * caller must read it to the end and close it to return the connection.
+     */
+    static InputStream body(HttpURLConnection conn) throws IOException {
+        if (conn.getResponseCode() < 400) return conn.getInputStream();
+        InputStream err = conn.getErrorStream();
+        return err != null ? err : new ByteArrayInputStream(new byte[0]);
+    }
+
+    /** Reads the whole body as UTF-8 and closes it. */
+    static String readString(HttpURLConnection conn) throws IOException {
+        int length = conn.getContentLength();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length > 0 ? length : BUFFER_SIZE);
+        try (InputStream in = body(conn)) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buf)) != -1) out.write(buf, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /** Skips an unwanted body (304, errors) so the connection can be reused. */
+    static void discard(HttpURLConnection conn) {
+        try (InputStream in = body(conn)) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            while (in.read(buf) != -1) { /* drain */ }
+        } catch (IOException e) {
+            conn.disconnect();
+        }
+    }
+
+    /** All values of header {@code name}, matched case-insensitively. */
+    static List<String> headers(HttpURLConnection conn, String name) {
+        List<String> values = new ArrayList<>();
+        for (Map.Entry<String, List<String>> h : conn.getHeaderFields().entrySet()) {
+            if (name.equalsIgnoreCase(h.getKey())) values.addAll(h.getValue());
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // HELPERS
+    // ──────────────────────────────────────────────────────────────────────────
+
+    /** Platform TLS with a session cache sized for our handful of hosts. */
+    private static SSLSocketFactory tlsFactory() {
+        try {
+            SSLContext ctx = SSLContext.getInstance("TLS");
+            ctx.init(null, null, null);
+            SSLSessionContext sessions = ctx.getClientSessionContext();
+            if (sessions != null) {
+                sessions.setSessionCacheSize(TLS_SESSION_CACHE);
+                sessions.setSessionTimeout(TLS_SESSION_TIMEOUT_S);
+            }
+            return ctx.getSocketFactory();
+        } catch (Exception e) {
+            Log.w(TAG, "Using default TLS factory: " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.turmer.fieldsales;
+
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * On-disk cache of encoded raster jobs, for reprints and extra copies.
+ *
+ * Each entry is the raster body of one printed receipt (command-set prefix,
+ * bands, suffix — everything between printer init and the cut) plus the id of
+ * the {@link RasterCommandSet} it was encoded with. Entries are keyed by a
+ * hash of the receipt HTML, paper width and printer, so printing the same
+ * receipt again replays the bytes instead of rendering the page.
+ *
+ * LRU by file modification time (touched on every hit), evicted down to
+ * {@link #MAX_BYTES} on insert.
+ */
+final class JobCache {
+
+    private static final String TAG = "JobCache";
+
+    /** Total size the cache directory is trimmed to. */
+    static final long MAX_BYTES = 8L * 1024 * 1024;
+    /** Jobs larger than this (very long reports) are not cached. */
+    static final int MAX_ENTRY_BYTES = 2 * 1024 * 1024;
+
+    private static final String SUFFIX = ".job";
+
+    /** A cached job: the command set it needs and the raster body. */
+    static final class Entry {
+        final String commandSet;
+        final byte[] body;
+
+        Entry(String commandSet, byte[] body) {
+            this.commandSet = commandSet;
+            this.body = body;
+        }
+    }
+
+    private final File dir;
+
+    JobCache(File dir) {
+        this.dir = dir;
+    }
+
+    /** Cache key for a receipt: HTML, paper width and target printer. */
+    static String key(String html, int widthMm, String printerMac) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update((widthMm + "|" + printerMac + "|").getBytes(StandardCharsets.UTF_8));
+            md.update(html.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : md.digest()) sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (Exception e) {
+            return Integer.toHexString(html.hashCode()) + "_" + widthMm;
+        }
+    }
+
+    /** Cheap existence check (no read), safe to call on the UI thread. */
+    boolean contains(String key) {
+        return file(key).isFile();
+    }
+
+    /** The cached job for {@code key}, or null. Marks it most recently used. */
+    synchronized Entry get(String key) {
+        File f = file(key);
+        if (!f.isFile()) return null;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(f))) {
+            String commandSet = in.readUTF();
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            f.setLastModified(System.currentTimeMillis());
+            return new Entry(commandSet, body);
+        } catch (IOException e) {
+            Log.w(TAG, "Dropping unreadable cache entry " + key + ": " + e.getMessage());
+            f.delete();
+            return null;
+        }
+    }
+
+    synchronized void put(String key, String commandSet, byte[] body) {
+        if (body == null || body.length > MAX_ENTRY_BYTES) return;
+        if (!dir.isDirectory() && !dir.mkdirs()) return;
+        File tmp = new File(dir, key + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp))) {
+            out.writeUTF(commandSet);
+            out.writeInt(body.length);
+            out.write(body);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not cache job " + key + ": " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file(key))) {
+            tmp.delete();
+            return;
+        }
+        evict();
+    }
+
+    /** Drops every entry (e.g. after a threshold or command-set change). */
+    synchronized void clear() {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File f : files) f.delete();
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // HELPERS
+    // ──────────────────────────────────────────────────────────────────────────
+
+    private File file(String key) {
+        return new File(dir, key + SUFFIX);
+    }
+
+    /** Deletes least recently used entries until the directory fits in MAX_BYTES. */
+    private void evict() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null) return;
+        long total = 0;
+        for (File f : files) total += f.length();
+        if (total <= MAX_BYTES) return;
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File f : files) {
+            if (total <= MAX_BYTES) break;
+            total -= f.length();
+            f.delete();
+        }
+    }
+}
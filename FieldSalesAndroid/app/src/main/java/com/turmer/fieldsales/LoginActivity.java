@@ -24,15 +24,8 @@ import android.widget.ScrollView;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -65,6 +58,7 @@ public class LoginActivity extends Activity {
     private View        loadingOverlay;
     private boolean    passwordVisible = false;
     private boolean    urlEditMode     = false;  // true when user tapped "Change"
+    private DatabaseList dbList;
 
     // ─────────────────────────────────────────────────────────────────────────
     // LIFECYCLE
@@ -74,6 +68,16 @@ public class LoginActivity extends Activity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        // ── Fast path: a stored session opens the POS at once; MainActivity
+        // checks it with Odoo in the background and re-authenticates if needed
+        if (!getIntent().getBooleanExtra("force_login", false)) {
+            OdooSession session = OdooSession.load(this);
+            if (session != null) {
+                openMain(session, true);
+                return;
+            }
+        }
+
         getWindow().requestFeature(Window.FEATURE_NO_TITLE);
         getWindow().setFlags(
                 WindowManager.LayoutParams.FLAG_FULLSCREEN,
@@ -90,6 +94,7 @@ public class LoginActivity extends Activity {
         // Load saved URL and decide which URL row to show
         SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
         String savedUrl = prefs.getString(KEY_ODOO_URL, "");
+        dbList = new DatabaseList(prefs);
 
         if (savedUrl.isEmpty()) {
             // First launch — show the full URL input field
@@ -102,6 +107,9 @@ public class LoginActivity extends Activity {
             updateUrlChip(savedUrl);
             // Pre-populate if user ever taps Change
             etUrl.setText(savedUrl);
+            // Warm the connection and DB list while the user types
+            String savedBase = baseUrlOf(savedUrl);
+            if (savedBase != null) dbList.prefetch(savedBase);
         }
 
         // Load saved credentials
@@ -356,13 +364,8 @@ public class LoginActivity extends Activity {
         rawAppUrl = rawUrl;
 
         // Extract base URL (scheme + host + port only) — used only for auth API calls
-        String baseUrl;
-        try {
-            java.net.URL parsed = new java.net.URL(rawUrl);
-            int port = parsed.getPort();
-            baseUrl = parsed.getProtocol() + "://" + parsed.getHost()
-                    + (port != -1 ? ":" + port : "");
-        } catch (Exception ex) {
+        String baseUrl = baseUrlOf(rawUrl);
+        if (baseUrl == null) {
             showError("Invalid server URL");
             return;
         }
@@ -382,41 +385,14 @@ public class LoginActivity extends Activity {
     // ─── Step 1: detect DB ────────────────────────────────────────────────────
     private void fetchDatabaseList(String baseUrl, String username, String password) {
         try {
-            URL url = new URL(baseUrl + "/web/database/list");
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Content-Type", "application/json");
-            conn.setRequestProperty("Accept", "application/json");
-            conn.setDoOutput(true);
-            conn.setConnectTimeout(10000);
-            conn.setReadTimeout(10000);
-
-            JSONObject body = new JSONObject();
-            body.put("jsonrpc", "2.0");
-            body.put("method", "call");
-            body.put("id", 1);
-            body.put("params", new JSONObject());
-
-            byte[] payload = body.toString().getBytes("UTF-8");
-            try (OutputStream os = conn.getOutputStream()) { os.write(payload); }
-
-            int code = conn.getResponseCode();
-            StringBuilder sb = new StringBuilder();
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(
-                    code == 200 ? conn.getInputStream() : conn.getErrorStream()))) {
-                String l; while ((l = br.readLine()) != null) sb.append(l);
-            }
-
-            JSONArray dbArray = new JSONObject(sb.toString()).optJSONArray("result");
+            // Cached or prefetched in onCreate in the common case
+            List<String> dbs = dbList.get(baseUrl);
 
-            if (dbArray == null || dbArray.length() == 0) {
+            if (dbs.isEmpty()) {
                 runOnUiThread(() -> { showLoading(false); showDbField("Enter database name manually"); });
                 return;
             }
 
-            List<String> dbs = new ArrayList<>();
-            for (int i = 0; i < dbArray.length(); i++) dbs.add(dbArray.getString(i));
-
             if (dbs.size() == 1) {
                 authenticate(baseUrl, username, password, dbs.get(0));
             } else {
@@ -452,60 +428,30 @@ public class LoginActivity extends Activity {
         showLoading(true);
         new Thread(() -> {
             try {
-                URL url = new URL(baseUrl + "/web/session/authenticate");
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("POST");
-                conn.setRequestProperty("Content-Type", "application/json");
-                conn.setRequestProperty("Accept",       "application/json");
-                conn.setDoOutput(true);
-                conn.setConnectTimeout(15000);
-                conn.setReadTimeout(15000);
-
-                JSONObject params = new JSONObject();
-                params.put("db",       database);
-                params.put("login",    username);
-                params.put("password", password);
-
-                JSONObject body = new JSONObject();
-                body.put("jsonrpc", "2.0");
-                body.put("method",  "call");
-                body.put("id",      1);
-                body.put("params",  params);
-
-                byte[] payload = body.toString().getBytes("UTF-8");
-                conn.setRequestProperty("Content-Length", String.valueOf(payload.length));
-                try (OutputStream os = conn.getOutputStream()) { os.write(payload); }
-
-                int code = conn.getResponseCode();
-                StringBuilder sb = new StringBuilder();
-                try (BufferedReader br = new BufferedReader(new InputStreamReader(
-                        code == 200 ? conn.getInputStream() : conn.getErrorStream()))) {
-                    String l; while ((l = br.readLine()) != null) sb.append(l);
-                }
-
-                JSONObject resp   = new JSONObject(sb.toString());
-                JSONObject result = resp.optJSONObject("result");
-                JSONObject error  = resp.optJSONObject("error");
+                HttpClient.JsonResponse http =
+                        OdooSession.authenticate(baseUrl, database, username, password);
+                JSONObject error = http.body.optJSONObject("error");
 
                 if (error != null) {
                     String msg = error.optJSONObject("data") != null
                             ? error.getJSONObject("data").optString("message", "Login failed")
                             : error.optString("message", "Login failed");
+                    // A cached list may name a database that has since been dropped
+                    if (msg.contains("does not exist")) dbList.invalidate(baseUrl);
                     showLoading(false);
                     runOnUiThread(() -> showError(msg));
                     return;
                 }
 
-                Object uid = result != null ? result.opt("uid") : null;
-                if (uid == null || uid.equals(false) || uid.equals(JSONObject.NULL)
-                        || String.valueOf(uid).equals("false")) {
+                if (!OdooSession.loggedIn(http)) {
                     showLoading(false);
                     runOnUiThread(() -> showError("Invalid username or password"));
                     return;
                 }
 
                 // ── SUCCESS ──────────────────────────────────────────────────
-                String setCookie = conn.getHeaderField("Set-Cookie");
+                OdooSession session = new OdooSession(baseUrl, rawAppUrl, database, http.cookies);
+                session.save(LoginActivity.this);
 
                 // Save credentials for auto-login
                 getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit()
@@ -515,14 +461,7 @@ public class LoginActivity extends Activity {
                         .apply();
 
                 showLoading(false);
-                runOnUiThread(() -> {
-                    Intent intent = new Intent(LoginActivity.this, MainActivity.class);
-                    intent.putExtra("odoo_url",       rawAppUrl);   // exact URL to load
-                    intent.putExtra("session_cookie", setCookie != null ? setCookie : "");
-                    intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
-                    startActivity(intent);
-                    finish();
-                });
+                runOnUiThread(() -> openMain(session, false));
 
             } catch (Exception e) {
                 showLoading(false);
@@ -531,10 +470,33 @@ public class LoginActivity extends Activity {
         }).start();
     }
 
+    /** Hands over to the POS; {@code validate} when the session wasn't just issued. */
+    private void openMain(OdooSession session, boolean validate) {
+        Intent intent = new Intent(this, MainActivity.class);
+        intent.putExtra("odoo_url",         session.appUrl);   // exact URL to load
+        intent.putStringArrayListExtra("session_cookies", session.cookies);
+        intent.putExtra("validate_session", validate);
+        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
+        startActivity(intent);
+        finish();
+    }
+
     // ─────────────────────────────────────────────────────────────────────────
     // HELPERS
     // ─────────────────────────────────────────────────────────────────────────
 
+    /** Scheme + host + port of {@code rawUrl}, or null if it doesn't parse. */
+    private static String baseUrlOf(String rawUrl) {
+        try {
+            java.net.URL parsed = new java.net.URL(rawUrl);
+            int port = parsed.getPort();
+            return parsed.getProtocol() + "://" + parsed.getHost()
+                    + (port != -1 ? ":" + port : "");
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
     private void showLoading(boolean show) {
         runOnUiThread(() -> {
             loadingOverlay.setVisibility(show ? View.VISIBLE : View.GONE);
@@ -14,7 +14,6 @@ import android.os.Bundle;
 import android.util.Log;
 import android.view.Gravity;
 import android.view.View;
-import android.view.ViewGroup;
 import android.view.Window;
 import android.view.WindowManager;
 import android.webkit.WebChromeClient;
@@ -39,8 +38,16 @@ public class MainActivity extends AppCompatActivity {
 
     private static final String PREFS_NAME = "FieldSalesPrefs";
     private static final String KEY_ODOO_URL = "odoo_url";
+    private static final String KEY_USERNAME = "saved_username";
+    private static final String KEY_PASSWORD = "saved_password";
     private static final String KEY_PRINTER_MAC = "selected_printer_mac";
     private static final String KEY_PRINTER_WIDTH = "printer_width_mm"; // 80 or 104
+    private static final String KEY_RENDER_TIMEOUT = "print_render_timeout_ms";
+
+    // POS asset cache: size cap, and how often a resume checks for new bundles
+    private static final long WEB_ASSETS_MAX_BYTES = 96L * 1024 * 1024;
+    private static final long ASSET_REFRESH_INTERVAL_MS = 30 * 60 * 1000L;
+
     private static final int LOCATION_PERMISSION_REQUEST_CODE = 1002;
     private static final int BLUETOOTH_PERMISSION_REQUEST_CODE = 1003;
 
@@ -49,6 +56,17 @@ public class MainActivity extends AppCompatActivity {
     private SharedPreferences prefs;
 
     private EscPosPrinter printer;
+    private PrintQueue printQueue;
+    private PrintWebViewPool printViews;
+    private JobCache jobCache;
+    private AssetCache printAssets;
+    // Odoo bundles and static files for the POS itself (stale-while-revalidate)
+    private AssetCache webAssets;
+    // Report PDFs for shareFile / prefetchFile
+    private PdfCache pdfCache;
+    private long lastAssetRefresh;
+    // Last receipt sent through printHtml, for reprintLast()
+    private String lastPrintHtml;
 
     // ──────────────────────────────────────────────────────────────────────────
     // LIFECYCLE
@@ -66,6 +84,10 @@ public class MainActivity extends AppCompatActivity {
                 WindowManager.LayoutParams.FLAG_FULLSCREEN
         );
 
+        // Receipts are drawn from their offscreen WebView tile by tile, including
+        // parts outside its viewport. Must be enabled before any WebView exists.
+        WebView.enableSlowWholeDocumentDraw();
+
         // ── Build layout ──
         FrameLayout root = new FrameLayout(this);
 
@@ -94,27 +116,39 @@ public class MainActivity extends AppCompatActivity {
         setContentView(root);
 
         printer = new EscPosPrinter(this);
+        printQueue = new PrintQueue(printer);
+        printViews = new PrintWebViewPool(this);
+        jobCache = new JobCache(new java.io.File(getCacheDir(), "print_jobs"));
+        printAssets = new AssetCache(new java.io.File(getCacheDir(), "print_assets"));
+        webAssets = new AssetCache(new java.io.File(getCacheDir(), "web_assets"), WEB_ASSETS_MAX_BYTES, true);
+        pdfCache = new PdfCache(new java.io.File(getCacheDir(), "shared_pdfs"));
+        lastAssetRefresh = System.currentTimeMillis(); // this launch loads the bundles anyway
 
         setupWebView();
 
         // ── Load URL and cookies from Intent ──
         String odooUrl = getIntent().getStringExtra("odoo_url");
-        String sessionCookie = getIntent().getStringExtra("session_cookie");
+        ArrayList<String> sessionCookies = getIntent().getStringArrayListExtra("session_cookies");
 
         if (odooUrl != null && !odooUrl.isEmpty()) {
-            if (sessionCookie != null && !sessionCookie.isEmpty()) {
+            if (sessionCookies != null && !sessionCookies.isEmpty()) {
                 android.webkit.CookieManager cookieManager = android.webkit.CookieManager.getInstance();
                 cookieManager.setAcceptCookie(true);
-                cookieManager.setCookie(odooUrl, sessionCookie);
-                cookieManager.flush();
+                // A fresh login always wins; a stored session only stands in for
+                // missing cookies — the WebView's own may have been renewed since
+                String current = cookieManager.getCookie(odooUrl);
+                if (!getIntent().getBooleanExtra("validate_session", false)
+                        || current == null || current.isEmpty()) {
+                    for (String cookie : sessionCookies) cookieManager.setCookie(odooUrl, cookie);
+                    cookieManager.flush();
+                }
             }
 
             // Navigate to the Field Sales POS UI
-            if (!odooUrl.endsWith("/pos/ui")) {
-                odooUrl = odooUrl.replaceAll("/+$", "") + "/pos/ui";
-            }
+            webView.loadUrl(posUrl(odooUrl));
 
-            webView.loadUrl(odooUrl);
+            // Opened with a stored session: confirm it while the POS loads
+            if (getIntent().getBooleanExtra("validate_session", false)) checkSession();
         } else {
             Toast.makeText(this, "Error: No Odoo URL provided", Toast.LENGTH_LONG).show();
         }
@@ -124,6 +158,136 @@ public class MainActivity extends AppCompatActivity {
 
         // Check Bluetooth connection status after short delay (permissions may be pending)
         webView.postDelayed(this::checkBluetoothPrinterStatus, 2500);
+
+        // Have a print WebView ready before the first receipt
+        webView.postDelayed(() -> printViews.warmUp(
+                printWidthDots(prefs.getInt(KEY_PRINTER_WIDTH, 80))), 5000);
+    }
+
+    /** {@code path} on the Odoo server the WebView is showing. UI thread only. */
+    private String odooResourceUrl(String path) {
+        String base = webView.getUrl();
+        if (base == null) base = prefs.getString(KEY_ODOO_URL, "");
+        return android.net.Uri.parse(base).buildUpon().encodedPath(path).build().toString();
+    }
+
+    /** Whose PDFs are cached: the session's database and login. */
+    private String pdfScope() {
+        return OdooSession.database(this) + "/" + prefs.getString(KEY_USERNAME, "");
+    }
+
+    /** The Field Sales POS UI under {@code odooUrl}. */
+    private static String posUrl(String odooUrl) {
+        if (odooUrl.endsWith("/pos/ui")) return odooUrl;
+        return odooUrl.replaceAll("/+$", "") + "/pos/ui";
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // SESSION
+    // ──────────────────────────────────────────────────────────────────────────
+
+    /**
+     * Asks Odoo in the background whether the stored session the POS was
+     * opened with is still alive. If it expired, logs in again with the saved
+     * credentials and reloads the POS; if that is refused, returns to the
+     * login screen. When Odoo can't be reached the POS keeps running as is.
+     */
+    private void checkSession() {
+        OdooSession session = OdooSession.load(this);
+        if (session == null) return;
+        String webCookies = android.webkit.CookieManager.getInstance().getCookie(session.appUrl);
+        new Thread(() -> {
+            if (session.check(webCookies) != OdooSession.EXPIRED) return;
+            Log.i("OdooSession", "Stored session expired, re-authenticating");
+
+            OdooSession renewed = null;
+            try {
+                HttpClient.JsonResponse resp = OdooSession.authenticate(session.baseUrl,
+                        session.database, prefs.getString(KEY_USERNAME, ""),
+                        prefs.getString(KEY_PASSWORD, ""));
+                if (OdooSession.loggedIn(resp) && !resp.cookies.isEmpty()) {
+                    renewed = new OdooSession(session.baseUrl, session.appUrl,
+                            session.database, resp.cookies);
+                    renewed.save(this);
+                }
+            } catch (Exception e) {
+                Log.w("OdooSession", "Re-authentication failed: " + e.getMessage());
+                return; // network trouble — try again on the next launch
+            }
+
+            final OdooSession result = renewed;
+            runOnUiThread(() -> {
+                if (result != null) {
+                    result.applyCookies(result.appUrl);
+                    webView.loadUrl(posUrl(result.appUrl));
+                } else {
+                    OdooSession.clear(this);
+                    openLogin();
+                }
+            });
+        }).start();
+    }
+
+    /**
+     * Logs out for good (or to switch accounts): ends the Odoo session, forgets
+     * the stored session, WebView cookies and saved password so nothing logs
+     * back in silently, and returns to the login screen. UI thread.
+     */
+    private void logout() {
+        String url = webView.getUrl();
+        if (url == null) url = prefs.getString(KEY_ODOO_URL, "");
+        android.net.Uri uri = android.net.Uri.parse(url);
+        String base = uri.getScheme() + "://" + uri.getEncodedAuthority();
+        String cookies = android.webkit.CookieManager.getInstance().getCookie(url);
+        if (uri.getHost() != null && cookies != null) {
+            new Thread(() -> OdooSession.destroy(base, cookies)).start();
+        }
+
+        OdooSession.clear(this);
+        prefs.edit().remove(KEY_PASSWORD).apply();
+        android.webkit.CookieManager.getInstance().removeAllCookies(null);
+        android.webkit.CookieManager.getInstance().flush();
+        openLogin();
+    }
+
+    /** The login screen, skipping its stored-session fast path. */
+    private void openLogin() {
+        android.content.Intent intent = new android.content.Intent(this, LoginActivity.class);
+        intent.putExtra("force_login", true);
+        intent.setFlags(android.content.Intent.FLAG_ACTIVITY_NEW_TASK
+                | android.content.Intent.FLAG_ACTIVITY_CLEAR_TASK);
+        startActivity(intent);
+        finish();
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // Back in the foreground after a while: pick up bundles from a server
+        // update now, so the next cold start opens from disk
+        String url = webView != null ? webView.getUrl() : null;
+        long now = System.currentTimeMillis();
+        if (url != null && url.startsWith("http") && now - lastAssetRefresh > ASSET_REFRESH_INTERVAL_MS) {
+            lastAssetRefresh = now;
+            webAssets.refresh(url);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        // Stop the print writer; it closes the persistent printer session on its way out
+        printQueue.shutdown();
+        printViews.trim();
+        super.onDestroy();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // Idle print WebViews are the easiest memory to give back
+        if (level >= android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            printViews.trim();
+        }
     }
 
     // ──────────────────────────────────────────────────────────────────────────
@@ -183,7 +347,81 @@ public class MainActivity extends AppCompatActivity {
             @android.webkit.JavascriptInterface
             public void printHtml(String html) {
                 Log.d("AndroidPrint", "Received HTML for print");
-                runOnUiThread(() -> renderAndPrint(html));
+                runOnUiThread(() -> printHtmlJob(html, 1, false));
+            }
+
+            @android.webkit.JavascriptInterface
+            public void printHtmlCopies(String html, int copies) {
+                // Rendered and encoded once; further copies replay the same bytes
+                runOnUiThread(() -> printHtmlJob(html, copies, false));
+            }
+
+            @android.webkit.JavascriptInterface
+            public void reprint(String html, int copies, boolean duplicate) {
+                // Replays the cached job when this receipt was printed before
+                runOnUiThread(() -> printHtmlJob(html, copies, duplicate));
+            }
+
+            @android.webkit.JavascriptInterface
+            public void reprintLast(int copies, boolean duplicate) {
+                runOnUiThread(() -> {
+                    if (lastPrintHtml == null) {
+                        Toast.makeText(MainActivity.this, "Nothing to reprint",
+                                Toast.LENGTH_SHORT).show();
+                    } else {
+                        printHtmlJob(lastPrintHtml, copies, duplicate);
+                    }
+                });
+            }
+
+            @android.webkit.JavascriptInterface
+            public void printHtmlBatch(String json) {
+                // JSON array of HTML strings (or {"html": ...} objects), printed
+                // back to back over one printer session
+                List<String> docs = new ArrayList<>();
+                try {
+                    org.json.JSONArray arr = new org.json.JSONArray(json);
+                    for (int i = 0; i < arr.length(); i++) {
+                        Object o = arr.get(i);
+                        docs.add(o instanceof org.json.JSONObject
+                                ? ((org.json.JSONObject) o).getString("html") : String.valueOf(o));
+                    }
+                } catch (Exception e) {
+                    Log.e("AndroidPrint", "Invalid print batch", e);
+                    runOnUiThread(() -> Toast.makeText(MainActivity.this,
+                            "❌ Invalid print batch: " + e.getMessage(), Toast.LENGTH_SHORT).show());
+                    return;
+                }
+                Log.d("AndroidPrint", "Received batch of " + docs.size() + " documents");
+                if (!docs.isEmpty()) runOnUiThread(() -> MainActivity.this.printHtmlBatch(docs));
+            }
+
+            @android.webkit.JavascriptInterface
+            public void printReceipt(String json) {
+                // Structured receipt printed in native text mode — no WebView render.
+                // Layout: see ReceiptEncoder. Only this path keeps the logo in the
+                // printer's NV memory; printHtml sends it within the page raster.
+                Log.d("AndroidPrint", "Received structured receipt for print");
+                int widthMm = prefs.getInt(KEY_PRINTER_WIDTH, 80);
+                int widthDots = printWidthDots(widthMm);
+                byte[] data;
+                android.graphics.Bitmap logo;
+                try {
+                    // Text keeps the 203 dpi column layout; the logo is raster at the head's density
+                    data = ReceiptEncoder.encode(json, widthDots);
+                    logo = decodeLogo(new org.json.JSONObject(json).optString("logo", ""),
+                            printWidthDots(widthMm, printerDpi()));
+                } catch (Exception e) {
+                    Log.e("AndroidPrint", "Invalid receipt", e);
+                    runOnUiThread(() -> Toast.makeText(MainActivity.this,
+                            "❌ Invalid receipt: " + e.getMessage(), Toast.LENGTH_SHORT).show());
+                    return;
+                }
+                printQueue.submit("receipt (text)", p -> p.printRaw(logo, data))
+                        .result.thenAccept(status -> {
+                            if (logo != null) logo.recycle();
+                            runOnUiThread(() -> reportPrintResult(status));
+                        });
             }
 
             @android.webkit.JavascriptInterface
@@ -199,11 +437,88 @@ public class MainActivity extends AppCompatActivity {
                         "Printer width set to " + widthMm + "mm", Toast.LENGTH_SHORT).show());
             }
 
+            @android.webkit.JavascriptInterface
+            public void setPrinterDpi(int dpi) {
+                // 203 or 300 — HTML receipts are rendered at the print head's density
+                printQueue.submit("dpi", p -> {
+                    p.setDpi(dpi);
+                    jobCache.clear();
+                    return true;
+                });
+            }
+
             @android.webkit.JavascriptInterface
             public int getPrinterWidth() {
                 return prefs.getInt(KEY_PRINTER_WIDTH, 80);
             }
 
+            @android.webkit.JavascriptInterface
+            public void calibratePrinter() {
+                runOnUiThread(() -> MainActivity.this.calibratePrinter());
+            }
+
+            @android.webkit.JavascriptInterface
+            public void setRasterFormats(String csv) {
+                // Raster command sets the selected printer supports, e.g.
+                // "gs_v0,gs_paren_l" — the first listed is used until
+                // EscPosPrinter.compareCommandSets picks the cheapest
+                printQueue.submit("raster formats", p -> {
+                    p.setCommandSets(csv);
+                    jobCache.clear();
+                    return true;
+                });
+            }
+
+            @android.webkit.JavascriptInterface
+            public void setPrintThreshold(int threshold) {
+                // 1–255, default 128: raise for faint thermal heads, lower for dark ones
+                printQueue.submit("threshold", p -> {
+                    p.setThreshold(threshold);
+                    jobCache.clear(); // cached jobs were encoded at the old threshold
+                    return true;
+                });
+            }
+
+            @android.webkit.JavascriptInterface
+            public void setRenderTimeout(int timeoutMs) {
+                // Longest wait for a receipt page to settle before it is captured anyway
+                prefs.edit().putLong(KEY_RENDER_TIMEOUT, timeoutMs).apply();
+            }
+
+            @android.webkit.JavascriptInterface
+            public String getPrintJobs() {
+                // Recent print jobs, newest first: [{id, label, status}, ...]
+                return printQueue.describe();
+            }
+
+            @android.webkit.JavascriptInterface
+            public String getPrintStats() {
+                // {jobs: [{label, status, total_ms, stages_ms, bytes, bytes_per_second,
+                //          connect_strategy, command_set}, ...], summary: {<stage>_ms: {p50, p90, p99, max}}}
+                return printQueue.stats().toJson();
+            }
+
+            @android.webkit.JavascriptInterface
+            public String exportPrintStats() {
+                // Writes the stats to a file and offers to share it; returns the path.
+                // One file, overwritten by each export, so exports never pile up
+                java.io.File dir = new java.io.File(getCacheDir(), "print_stats");
+                java.io.File file = new java.io.File(dir, "print-stats.json");
+                if (!printQueue.stats().export(file)) return "";
+                java.io.File[] old = dir.listFiles((d, name) -> !name.equals(file.getName()));
+                if (old != null) for (java.io.File f : old) f.delete(); // timestamped exports
+                runOnUiThread(() -> {
+                    android.net.Uri uri = androidx.core.content.FileProvider.getUriForFile(
+                            MainActivity.this, getPackageName() + ".fileprovider", file);
+                    android.content.Intent intent = new android.content.Intent(android.content.Intent.ACTION_SEND);
+                    intent.setType("application/json");
+                    intent.putExtra(android.content.Intent.EXTRA_STREAM, uri);
+                    intent.addFlags(android.content.Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                    startActivity(android.content.Intent.createChooser(intent, "Share print stats"));
+                });
+                return file.getAbsolutePath();
+            }
+
             @android.webkit.JavascriptInterface
             public void hideSplash() {
                 // No-op: Splash screen removed
@@ -245,34 +560,13 @@ public class MainActivity extends AppCompatActivity {
             public void shareFile(String path, String filename) {
                 runOnUiThread(() -> {
                     Toast.makeText(MainActivity.this, "Preparing PDF for share...", Toast.LENGTH_SHORT).show();
-                    String baseStr = webView.getUrl();
-                    if (baseStr == null) baseStr = prefs.getString(KEY_ODOO_URL, "");
-                    final String finalBase = baseStr;
-                    final String urlStr = android.net.Uri.parse(finalBase).buildUpon().encodedPath(path).build().toString();
+                    final String urlStr = odooResourceUrl(path);
                     final String cookies = android.webkit.CookieManager.getInstance().getCookie(urlStr);
 
                     new Thread(() -> {
                         try {
-                            java.net.URL url = new java.net.URL(urlStr);
-                            java.net.HttpURLConnection conn = (java.net.HttpURLConnection) url.openConnection();
-                            if (cookies != null) {
-                                conn.setRequestProperty("Cookie", cookies);
-                            }
-                            conn.connect();
-
-                            java.io.File cacheDir = new java.io.File(getCacheDir(), "shared_pdfs");
-                            if (!cacheDir.exists()) cacheDir.mkdirs();
-                            java.io.File pdfFile = new java.io.File(cacheDir, filename);
-
-                            java.io.InputStream in = conn.getInputStream();
-                            java.io.FileOutputStream out = new java.io.FileOutputStream(pdfFile);
-                            byte[] buffer = new byte[2048];
-                            int len;
-                            while ((len = in.read(buffer)) > 0) {
-                                out.write(buffer, 0, len);
-                            }
-                            out.close();
-                            in.close();
+                            // From the cache when prefetched or unchanged on the server
+                            java.io.File pdfFile = pdfCache.get(pdfScope(), urlStr, cookies, filename);
 
                             runOnUiThread(() -> {
                                 android.net.Uri fileUri = androidx.core.content.FileProvider.getUriForFile(MainActivity.this, getPackageName() + ".fileprovider", pdfFile);
@@ -289,9 +583,40 @@ public class MainActivity extends AppCompatActivity {
                     }).start();
                 });
             }
+
+            @android.webkit.JavascriptInterface
+            public void logout() {
+                // Log out / switch account: back to the login screen with nothing
+                // stored that could log in again on its own
+                runOnUiThread(MainActivity.this::logout);
+            }
+
+            @android.webkit.JavascriptInterface
+            public void prefetchFile(String path) {
+                // Download a PDF ahead of shareFile (e.g. the invoice right after
+                // order confirmation) so the share opens without waiting
+                runOnUiThread(() -> {
+                    String urlStr = odooResourceUrl(path);
+                    pdfCache.prefetch(pdfScope(), urlStr, android.webkit.CookieManager.getInstance().getCookie(urlStr));
+                });
+            }
         }, "AndroidSettings");
 
         webView.setWebViewClient(new WebViewClient() {
+            @Override
+            public android.webkit.WebResourceResponse shouldInterceptRequest(
+                    WebView view, android.webkit.WebResourceRequest request) {
+                // Hashed Odoo bundles and module static files from disk; everything
+                // else (pages, RPC, images) goes to the network as before
+                android.net.Uri uri = request.getUrl();
+                android.net.Uri odoo = android.net.Uri.parse(prefs.getString(KEY_ODOO_URL, ""));
+                if (uri.getHost() == null || !uri.getHost().equals(odoo.getHost())
+                        || !AssetCache.isStatic(uri.getPath())) {
+                    return null;
+                }
+                return webAssets.intercept(request);
+            }
+
             @Override
             public boolean shouldOverrideUrlLoading(WebView view, android.webkit.WebResourceRequest request) {
                 String url = request.getUrl().toString();
@@ -323,6 +648,16 @@ public class MainActivity extends AppCompatActivity {
                 }
             }
 
+            @Override
+            public void onPageStarted(WebView view, String url, android.graphics.Bitmap favicon) {
+                // Logged out from Odoo's own user menu: don't let the stored session
+                // or saved password bring the user straight back in
+                if (url != null && "/web/session/logout".equals(android.net.Uri.parse(url).getPath())) {
+                    view.stopLoading();
+                    logout();
+                }
+            }
+
             @Override
             public void onPageFinished(WebView view, String url) {
                 progressBar.setVisibility(View.GONE);
@@ -369,19 +704,68 @@ public class MainActivity extends AppCompatActivity {
     // PRINT RENDERING
     // ──────────────────────────────────────────────────────────────────────────
 
-    private void renderAndPrint(String html) {
+    /**
+     * Prints an HTML receipt {@code copies} times. A receipt already printed on
+     * this printer at this width is replayed from {@link JobCache} without
+     * rendering; otherwise it is rendered, printed and cached.
+     */
+    private void printHtmlJob(String html, int copies, boolean duplicate) {
+        lastPrintHtml = html;
+        int widthMm = prefs.getInt(KEY_PRINTER_WIDTH, 80);
+        String key = JobCache.key(html, widthMm, prefs.getString(KEY_PRINTER_MAC, ""));
+        if (!jobCache.contains(key)) {
+            renderAndPrint(html, key, copies, duplicate);
+            return;
+        }
+
+        boolean[] stale = {false};
+        PrintQueue.Ticket ticket = printQueue.submit("receipt (cached)", p -> {
+            JobCache.Entry job = jobCache.get(key);
+            if (job == null || !p.accepts(job.commandSet)) {
+                stale[0] = true; // evicted meanwhile, or raster format changed
+                return false;
+            }
+            runOnUiThread(() -> Toast.makeText(MainActivity.this,
+                    "Printing...", Toast.LENGTH_SHORT).show());
+            return p.printCached(job, copies, duplicate);
+        });
+        ticket.result.thenAccept(status -> runOnUiThread(() -> {
+            if (stale[0]) renderAndPrint(html, key, copies, duplicate);
+            else reportPrintResult(status);
+        }));
+    }
+
+    private void renderAndPrint(String html, String cacheKey, int copies, boolean duplicate) {
         Toast.makeText(this, "Preparing Print...", Toast.LENGTH_SHORT).show();
 
+        // Pre-warmed offscreen WebView from the pool (created only if none is idle)
+        final WebView offscreenWV = printViews.acquire(printWidthDots(prefs.getInt(KEY_PRINTER_WIDTH, 80)));
+        PrintStats.Job trace = new PrintStats.Job("receipt");
+        renderReceipt(offscreenWV, html, trace,
+                tiles -> captureAndPrint(offscreenWV, tiles, trace, cacheKey, copies, duplicate));
+    }
+
+    /** Receives a rendered receipt on the UI thread; null if it could not be laid out. */
+    private interface ReceiptRendered {
+        void onRendered(WebViewTiles tiles);
+    }
+
+    /**
+     * Loads {@code html} into an offscreen print view and, once it has
+     * settled, lays it out and hands over its tiles (already rendering ahead).
+     * Load, settle, layout and tile drawing times go to {@code trace}.
+     */
+    private void renderReceipt(WebView offscreenWV, String html, PrintStats.Job trace,
+                               ReceiptRendered callback) {
         // Read saved settings
         String odooUrl = prefs.getString(KEY_ODOO_URL, "");
         int widthMm = prefs.getInt(KEY_PRINTER_WIDTH, 80);
 
-        // 58mm (2-inch) → 384px | 80mm (3-inch) → 576px  |  104mm (4-inch) → 832px
-        int logicalWidth = 576;
-        if (widthMm >= 100) logicalWidth = 832;
-        else if (widthMm <= 58) logicalWidth = 384;
-        
-        int printWidth   = logicalWidth;
+        // Layout width stays in 203 dpi dots so receipts wrap the same on every
+        // printer; the tiles are drawn through a canvas scale straight at the
+        // head's density (one raster pass, no scaled copy of the page)
+        int logicalWidth = printWidthDots(widthMm);
+        int printWidth   = printWidthDots(widthMm, printerDpi());
 
         // Build @page CSS for the correct paper width
         String pageSize = widthMm + "mm";
@@ -404,112 +788,207 @@ public class MainActivity extends AppCompatActivity {
                 ".text-right { text-align: right !important; }" +
                 "strong { font-weight: 900 !important; }" +
                 "</style></head>";
-        String styledHtml = html.replace("</head>", style);
+        // The readiness script rides in the page, so only this receipt can report back
+        String styledHtml = RenderReadiness.inject(html.replace("</head>", style));
+
+        // Capture as soon as images, fonts and layout have settled (not after a fixed 4s)
+        long loadStartNs = System.nanoTime();
+        RenderReadiness.attach(offscreenWV,
+                prefs.getLong(KEY_RENDER_TIMEOUT, RenderReadiness.DEFAULT_TIMEOUT_MS),
+                (contentHeight, loadedAtNs) -> {
+                    long readyNs = System.nanoTime();
+                    if (loadedAtNs != 0) {
+                        trace.add(PrintStats.LOAD, loadedAtNs - loadStartNs);
+                        trace.add(PrintStats.SETTLE, readyNs - loadedAtNs);
+                    }
+                    WebViewTiles tiles = layoutTiles(offscreenWV, logicalWidth, printWidth, contentHeight);
+                    trace.add(PrintStats.LAYOUT, System.nanoTime() - readyNs);
+                    if (tiles != null) tiles.trace(trace);
+                    callback.onRendered(tiles);
+                });
 
-        final WebView offscreenWV = new WebView(this);
-        offscreenWV.getSettings().setJavaScriptEnabled(true);
+        offscreenWV.setWebViewClient(new WebViewClient() {
+            @Override
+            public android.webkit.WebResourceResponse shouldInterceptRequest(
+                    WebView view, android.webkit.WebResourceRequest request) {
+                // Logo, fonts and barcode images come from disk after the first receipt
+                return printAssets.intercept(request);
+            }
+        });
         offscreenWV.loadDataWithBaseURL(odooUrl, styledHtml, "text/html", "utf-8", null);
+    }
 
-        int fLogicalWidth = logicalWidth;
-        int fPrintWidth   = printWidth;
+    /**
+     * Lays the settled page out over its full height and starts drawing its
+     * first tiles. The page is handed to the printer as fixed-height tiles
+     * drawn on demand (see WebViewTiles), so memory stays flat whatever the
+     * receipt length.
+     */
+    @SuppressWarnings("deprecation") // getScale(): CSS px → view px incl. any zoom
+    private WebViewTiles layoutTiles(WebView view, int fLogicalWidth, int fPrintWidth, int contentHeightCss) {
+        try {
+            // 1. Content height measured by the page itself — no fixed 10000px cap.
+            // Add 40px buffer (~2 lines space) to prevent cutter blocking
+            int contentHeight = (int) Math.ceil(contentHeightCss * view.getScale()) + 40;
+
+            // 2. Lay the page out over its full height; tiles are drawn from it
+            view.layout(0, 0, fLogicalWidth, contentHeight);
+            WebViewTiles tiles = new WebViewTiles(view, fLogicalWidth, contentHeight, fPrintWidth);
+            tiles.prefetch(); // first tiles render while the job is queued / connecting
+            return tiles;
+        } catch (Exception e) {
+            Log.e("AndroidPrint", "Render failed", e);
+            return null;
+        }
+    }
 
-        // ── CRITICAL: Use a large fixed height (not WRAP_CONTENT) ──
-        // WRAP_CONTENT causes the offscreen WebView to stop rendering content
-        // beyond the screen height, cutting off totals, QR codes, and disclaimers.
-        // A 10000px fixed height tells Android to render the FULL document.
-        FrameLayout.LayoutParams lp = new FrameLayout.LayoutParams(fLogicalWidth, 10000);
-        lp.leftMargin = -20000; // Push far off-screen so it's never visible
-        offscreenWV.setLayoutParams(lp);
-        ((ViewGroup) getWindow().getDecorView()).addView(offscreenWV);
+    /**
+     * Queues a rendered receipt for printing; the WebView goes back to the
+     * pool once the job is over. The encoded job is kept in the job cache,
+     * and extra copies are replayed from it rather than encoded again.
+     */
+    private void captureAndPrint(WebView view, WebViewTiles printTiles, PrintStats.Job trace,
+                                 String cacheKey, int copies, boolean duplicate) {
+        if (printTiles == null) {
+            Toast.makeText(MainActivity.this, "❌ Render failed", Toast.LENGTH_SHORT).show();
+            printViews.release(view);
+            return;
+        }
+
+        // Hand the tiles to the printer's single writer thread — jobs
+        // never interleave on the socket and run in tap order.
+        PrintQueue.Ticket ticket = printQueue.submit(trace, p -> {
+            runOnUiThread(() -> Toast.makeText(MainActivity.this,
+                    "Printing...", Toast.LENGTH_SHORT).show());
+            boolean ok = p.printRows(printTiles, duplicate);
+            JobCache.Entry job = ok ? p.lastJob() : null;
+            if (job != null) {
+                jobCache.put(cacheKey, job.commandSet, job.body);
+                if (copies > 1) ok = p.printCached(job, copies - 1, duplicate);
+            } else {
+                // Too long to keep — render the extra copies again
+                for (int i = 1; ok && i < copies; i++) ok = p.printRows(printTiles, duplicate);
+            }
+            return ok;
+        });
+        ticket.result.thenAccept(status -> runOnUiThread(() -> {
+            // Free the tiles and blank the view for the next receipt
+            printTiles.close();
+            printViews.release(view);
+            reportPrintResult(status);
+        }));
+    }
+
+    /**
+     * Prints a stack of HTML documents as one queue job: one session, one
+     * drain wait, a cut after each document. Documents are rendered one at a
+     * time into the same pooled WebView, each as soon as the previous one has
+     * been encoded, so memory stays at one receipt's worth.
+     */
+    private void printHtmlBatch(List<String> docs) {
+        Toast.makeText(this, "Preparing " + docs.size() + " documents...", Toast.LENGTH_SHORT).show();
+        final WebView offscreenWV = printViews.acquire(printWidthDots(prefs.getInt(KEY_PRINTER_WIDTH, 80)));
+        // Past RenderReadiness's own timeout, which always fires a capture
+        long renderTimeoutMs = prefs.getLong(KEY_RENDER_TIMEOUT, RenderReadiness.DEFAULT_TIMEOUT_MS)
+                + RenderReadiness.LOAD_TIMEOUT_MS + 5000;
+        PrintStats.Job trace = new PrintStats.Job("batch (" + docs.size() + ")");
+
+        // UI thread only: tiles of the document being printed, and whether the batch is over
+        WebViewTiles[] shown = new WebViewTiles[1];
+        boolean[] finished = {false};
+
+        // Pulled by the print writer thread, one document at a time
+        java.util.Iterator<BandEncoder.RowSource> documents = new java.util.Iterator<BandEncoder.RowSource>() {
+            private int next;
 
-        offscreenWV.setWebViewClient(new WebViewClient() {
             @Override
-            public void onPageFinished(WebView view, String url) {
-                view.postDelayed(() -> {
-                    try {
-                        // 1. Capture the full 10000px layout
-                        int height = 10000;
-
-                        android.graphics.Bitmap logicalBitmap =
-                                android.graphics.Bitmap.createBitmap(
-                                        fLogicalWidth, height,
-                                        android.graphics.Bitmap.Config.RGB_565);
-
-                        // 2. Draw the WebView into our full 10000px bitmap
-                        android.graphics.Canvas canvas = new android.graphics.Canvas(logicalBitmap);
-                        canvas.drawColor(android.graphics.Color.WHITE);
-                        view.layout(0, 0, fLogicalWidth, height);
-                        view.draw(canvas);
-
-                        // 3. Scan from bottom up to find the true content height (crop empty white space)
-                        int actualContentHeight = 0;
-                        int[] pixels = new int[fLogicalWidth];
-                        for (int y = height - 1; y >= 0; y--) {
-                            logicalBitmap.getPixels(pixels, 0, fLogicalWidth, 0, y, fLogicalWidth, 1);
-                            boolean hasContent = false;
-                            for (int x = 0; x < fLogicalWidth; x++) {
-                                // In RGB_565, pure white is -1 (0xFFFFFFFF)
-                                if (pixels[x] != android.graphics.Color.WHITE) {
-                                    hasContent = true;
-                                    break;
-                                }
-                            }
-                            if (hasContent) {
-                                // Add 40px buffer (~2 lines space) to prevent cutter blocking
-                                actualContentHeight = Math.min(height, y + 40);
-                                break;
-                            }
+            public boolean hasNext() {
+                return next < docs.size();
+            }
+
+            @Override
+            public BandEncoder.RowSource next() {
+                String html = docs.get(next++);
+                java.util.concurrent.CompletableFuture<WebViewTiles> rendered =
+                        new java.util.concurrent.CompletableFuture<>();
+                runOnUiThread(() -> {
+                    // The previous document has been read in full by now
+                    if (shown[0] != null) shown[0].close();
+                    shown[0] = null;
+                    renderReceipt(offscreenWV, html, trace, tiles -> {
+                        if (finished[0]) {
+                            if (tiles != null) tiles.close(); // batch gave up meanwhile
+                            return;
                         }
+                        shown[0] = tiles;
+                        rendered.complete(tiles);
+                    });
+                });
+                WebViewTiles tiles;
+                try {
+                    tiles = rendered.get(renderTimeoutMs, java.util.concurrent.TimeUnit.MILLISECONDS);
+                } catch (Exception e) {
+                    throw new IllegalStateException("Timed out rendering document " + next, e);
+                }
+                if (tiles == null) throw new IllegalStateException("Could not render document " + next);
+                return tiles;
+            }
+        };
+
+        printQueue.submit(trace, p -> {
+            runOnUiThread(() -> Toast.makeText(MainActivity.this,
+                    "Printing...", Toast.LENGTH_SHORT).show());
+            return p.printBatch(documents);
+        }).result.thenAccept(status -> runOnUiThread(() -> {
+            finished[0] = true;
+            if (shown[0] != null) shown[0].close();
+            shown[0] = null;
+            printViews.release(offscreenWV);
+            reportPrintResult(status);
+        }));
+    }
 
-                        if (actualContentHeight < 600) actualContentHeight = 600; // sanity minimum
-
-                        // 4. Crop the bitmap to the actual content height
-                        android.graphics.Bitmap croppedBitmap = android.graphics.Bitmap.createBitmap(
-                                logicalBitmap, 0, 0, fLogicalWidth, actualContentHeight);
-                        logicalBitmap.recycle(); // free the 10000px giant
-
-                        // 5. Scale down to printer width
-                        int scaledHeight = (int) (actualContentHeight * ((float) fPrintWidth / fLogicalWidth));
-                        android.graphics.Bitmap printBitmap =
-                                android.graphics.Bitmap.createScaledBitmap(
-                                        croppedBitmap, fPrintWidth, scaledHeight, true);
-                        croppedBitmap.recycle();
-
-                        new Thread(() -> {
-                            boolean connected = printer.connect();
-                            if (connected) {
-                                runOnUiThread(() -> Toast.makeText(MainActivity.this,
-                                        "Printing...", Toast.LENGTH_SHORT).show());
-                                printer.printBitmap(printBitmap);
-                                printer.close();
-                                runOnUiThread(() -> Toast.makeText(MainActivity.this,
-                                        "✅ Print Successful!", Toast.LENGTH_SHORT).show());
-                            } else {
-                                runOnUiThread(() -> {
-                                    new AlertDialog.Builder(MainActivity.this)
-                                            .setTitle("⚠️ Printer Not Connected")
-                                            .setMessage("Cannot reach the printer. Make sure Bluetooth is ON and your printer is powered and paired.")
-                                            .setPositiveButton("Select Printer", (d, w) -> showBluetoothDevicePicker())
-                                            .setNegativeButton("Cancel", null)
-                                            .show();
-                                });
-                            }
-                            printBitmap.recycle();
-                        }).start();
+    /**
+     * Receipt logo from printReceipt JSON: base64 PNG/JPEG, optionally as a
+     * data: URL, scaled down to the paper width. Null when there is none.
+     */
+    private static android.graphics.Bitmap decodeLogo(String base64, int widthDots) {
+        if (base64.isEmpty()) return null;
+        int comma = base64.indexOf(',');
+        if (base64.startsWith("data:") && comma > 0) base64 = base64.substring(comma + 1);
+        byte[] bytes = android.util.Base64.decode(base64, android.util.Base64.DEFAULT);
+        android.graphics.Bitmap logo =
+                android.graphics.BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+        if (logo == null) throw new IllegalArgumentException("Logo is not a valid image");
+        if (logo.getWidth() <= widthDots) return logo;
+        android.graphics.Bitmap scaled = android.graphics.Bitmap.createScaledBitmap(logo, widthDots,
+                logo.getHeight() * widthDots / logo.getWidth(), true);
+        logo.recycle();
+        return scaled;
+    }
 
-                    } catch (Exception e) {
-                        Log.e("AndroidPrint", "Print failed", e);
-                        runOnUiThread(() -> Toast.makeText(MainActivity.this,
-                                "❌ Render failed: " + e.getMessage(), Toast.LENGTH_SHORT).show());
-                    } finally {
-                        runOnUiThread(() -> {
-                            ((ViewGroup) getWindow().getDecorView()).removeView(offscreenWV);
-                            offscreenWV.destroy();
-                        });
-                    }
-                }, 4000); // Increased wait time to ensure QR codes finish loading
-            }
-        });
+    /** User feedback once a queued print job has finished. */
+    private void reportPrintResult(PrintQueue.Status status) {
+        if (isFinishing() || isDestroyed()) return;
+        switch (status) {
+            case DONE:
+                Toast.makeText(this, "✅ Print Successful!", Toast.LENGTH_SHORT).show();
+                break;
+            case NO_PRINTER:
+                new AlertDialog.Builder(MainActivity.this)
+                        .setTitle("⚠️ Printer Not Connected")
+                        .setMessage("Cannot reach the printer. Make sure Bluetooth is ON and your printer is powered and paired.")
+                        .setPositiveButton("Select Printer", (d, w) -> showBluetoothDevicePicker())
+                        .setNegativeButton("Cancel", null)
+                        .show();
+                break;
+            case REJECTED:
+                Toast.makeText(this, "⏳ Printer busy — too many jobs waiting", Toast.LENGTH_SHORT).show();
+                break;
+            default:
+                Toast.makeText(this, "❌ Print failed — check the printer", Toast.LENGTH_SHORT).show();
+                break;
+        }
     }
 
     // ──────────────────────────────────────────────────────────────────────────
@@ -554,6 +1033,11 @@ public class MainActivity extends AppCompatActivity {
                 .setItems(names.toArray(new String[0]), (dialog, which) -> {
                     String mac = macs.get(which);
                     prefs.edit().putString(KEY_PRINTER_MAC, mac).apply();
+                    // Drop any session to the previously selected printer
+                    printQueue.submit("switch printer", false, p -> {
+                        p.close();
+                        return true;
+                    });
                     // After selecting device, ask for paper width
                     showPaperWidthDialog();
                 })
@@ -577,11 +1061,27 @@ public class MainActivity extends AppCompatActivity {
                     prefs.edit().putInt(KEY_PRINTER_WIDTH, newMm).apply();
                     dialog.dismiss();
                     Toast.makeText(this, "Paper width set to " + newMm + "mm", Toast.LENGTH_SHORT).show();
+                    // New printer / width — measure its speed with a short test strip
+                    calibratePrinter();
                 })
                 .setNegativeButton("Cancel", null)
                 .show();
     }
 
+    /**
+     * Prints a short test strip and stores the measured chunk size, band height
+     * and sustainable speed in the printer's profile (see EscPosPrinter.calibrate).
+     */
+    private void calibratePrinter() {
+        int widthDots = printWidthDots(prefs.getInt(KEY_PRINTER_WIDTH, 80), printerDpi());
+        Toast.makeText(this, "Calibrating printer...", Toast.LENGTH_SHORT).show();
+        printQueue.submit("calibration", p -> p.calibrate(widthDots))
+                .result.thenAccept(status -> runOnUiThread(() -> Toast.makeText(MainActivity.this,
+                        status == PrintQueue.Status.DONE
+                                ? "✅ Printer calibrated" : "⚠️ Calibration skipped — using safe defaults",
+                        Toast.LENGTH_SHORT).show()));
+    }
+
     // ──────────────────────────────────────────────────────────────────────────
     // PERMISSIONS
     // ──────────────────────────────────────────────────────────────────────────
@@ -659,7 +1159,26 @@ public class MainActivity extends AppCompatActivity {
     // HELPERS
     // ──────────────────────────────────────────────────────────────────────────
 
+    /** 58mm (2-inch) → 384px | 80mm (3-inch) → 576px  |  104mm (4-inch) → 832px */
+    private static int printWidthDots(int widthMm) {
+        if (widthMm >= 100) return 832;
+        if (widthMm <= 58) return 384;
+        return 576;
+    }
+
+    /** Printable width at {@code dpi}, rounded down to whole raster bytes (300 dpi: 560 / 848 / 1224). */
+    private static int printWidthDots(int widthMm, int dpi) {
+        int dots = printWidthDots(widthMm);
+        if (dpi == PrinterProfile.DEFAULT_DPI) return dots;
+        return (dots * dpi / PrinterProfile.DEFAULT_DPI) & ~7;
+    }
+
+    /** Print head density of the selected printer, from its profile. */
+    private int printerDpi() {
+        return PrinterProfile.load(this, prefs.getString(KEY_PRINTER_MAC, null)).dpi;
+    }
+
     private int dp(int val) {
         return Math.round(val * getResources().getDisplayMetrics().density);
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,100 @@
+package com.turmer.fieldsales;
+
+import java.security.MessageDigest;
+
+/**
+ * GS ( L commands for keeping the receipt logo in the printer's non-volatile
+ * graphics memory (NV graphics, fn 66 / 67 / 69).
+ *
+ * The logo is uploaded once under a fixed key and afterwards printed with an
+ * 11-byte command. Which image a printer holds is tracked by the hash of its
+ * packed raster (see {@link #hash}) in the printer profile, so a new logo or a
+ * new threshold triggers a fresh upload. NV memory has limited write cycles —
+ * never upload unless the hash changed.
+ *
+ * The legacy FS q / FS p NV bit images are not used: FS q erases every stored
+ * image and is obsolete on current firmware.
+ */
+final class NvLogo {
+
+    /** Key code the logo is stored under (kc1 kc2, each 32–126). */
+    private static final byte KC1 = 'F';
+    private static final byte KC2 = 'L';
+
+    /** Parameter bytes of fn 67 before the image data: m fn a kc1 kc2 b xL xH yL yH c. */
+    private static final int DEFINE_PARAMS = 11;
+
+    /** Largest image fn 67 accepts. */
+    static final int MAX_WIDTH_DOTS = 8192;
+    static final int MAX_HEIGHT_DOTS = 2304;
+
+    private NvLogo() {}
+
+    /**
+     * fn 67 — defines the NV graphic (raster format, monochrome) from packed
+     * rows at {@code raster[offset]} (8 dots per byte, MSB = leftmost).
+     * Preceded by fn 66 so a previous logo under the same key is dropped first.
+     */
+    static byte[] define(byte[] raster, int offset, int bytesPerRow, int rows) {
+        int dataLen = bytesPerRow * rows;
+        int p = DEFINE_PARAMS + dataLen;
+        int dots = bytesPerRow * 8;
+        byte[] delete = delete();
+        boolean extended = p > 0xFFFF;
+        byte[] out = new byte[delete.length + (extended ? 7 : 5) + p];
+        System.arraycopy(delete, 0, out, 0, delete.length);
+        int d = delete.length;
+        out[d++] = 0x1D;                              // GS
+        if (!extended) {
+            out[d++] = 0x28;                          // (
+            out[d++] = 0x4C;                          // L
+            out[d++] = (byte) (p & 0xFF);             // pL
+            out[d++] = (byte) (p >> 8);               // pH
+        } else {
+            out[d++] = 0x38;                          // 8
+            out[d++] = 0x4C;                          // L
+            out[d++] = (byte) (p & 0xFF);             // p1
+            out[d++] = (byte) (p >> 8);               // p2
+            out[d++] = (byte) (p >> 16);              // p3
+            out[d++] = (byte) (p >> 24);              // p4
+        }
+        out[d++] = 0x30;                              // m
+        out[d++] = 67;                                // fn = define NV graphics (raster)
+        out[d++] = 0x30;                              // a = monochrome
+        out[d++] = KC1;
+        out[d++] = KC2;
+        out[d++] = 0x01;                              // b = 1 colour
+        out[d++] = (byte) (dots & 0xFF);              // xL
+        out[d++] = (byte) (dots >> 8);                // xH
+        out[d++] = (byte) (rows & 0xFF);              // yL
+        out[d++] = (byte) (rows >> 8);                // yH
+        out[d++] = 0x31;                              // c = colour 1
+        System.arraycopy(raster, offset, out, d, dataLen);
+        return out;
+    }
+
+    /** fn 69 — prints the stored logo at normal size. */
+    static byte[] print() {
+        return new byte[]{0x1D, 0x28, 0x4C, 0x06, 0x00, 0x30, 69, KC1, KC2, 0x01, 0x01};
+    }
+
+    /** fn 66 — deletes the stored logo (no-op if none). */
+    static byte[] delete() {
+        return new byte[]{0x1D, 0x28, 0x4C, 0x04, 0x00, 0x30, 66, KC1, KC2};
+    }
+
+    /** Hex SHA-256 of the packed logo and its size — what the printer profile remembers. */
+    static String hash(byte[] raster, int offset, int bytesPerRow, int rows) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(new byte[]{
+                    (byte) (bytesPerRow >> 8), (byte) bytesPerRow, (byte) (rows >> 8), (byte) rows});
+            md.update(raster, offset, bytesPerRow * rows);
+            StringBuilder sb = new StringBuilder();
+            for (byte b : md.digest()) sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (Exception e) {
+            return "";
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.turmer.fieldsales;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Base64;
+import android.util.Log;
+import android.webkit.CookieManager;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * The Odoo session the app last logged in with, kept so a cold start can open
+ * the POS straight away instead of re-authenticating first.
+ *
+ * The session cookies — every Set-Cookie header of the authenticate reply —
+ * are stored encrypted with an AES-GCM key that lives in the Android Keystore
+ * and never leaves it. The server URLs and database are stored in the clear.
+ *
+ * MainActivity opens the POS with the stored cookies — only if the WebView
+ * has none of its own, which may be newer — and asks Odoo with {@link #check}
+ * in parallel; only when Odoo reports the session expired does it
+ * {@link #authenticate} again with the saved credentials. Logging out (the
+ * app's logout bridge or Odoo's own logout link) {@link #clear}s the stored
+ * session, so it is never silently restored afterwards.
+ */
+final class OdooSession {
+
+    private static final String TAG = "OdooSession";
+
+    private static final String PREFS_NAME = "FieldSalesSession";
+    private static final String KEYSTORE = "AndroidKeyStore";
+    private static final String KEY_ALIAS = "odoo_session";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int GCM_TAG_BITS = 128;
+
+    static final int AUTH_TIMEOUT_MS = 15000;
+    private static final int CHECK_TIMEOUT_MS = 8000;
+
+    // check() results
+    static final int VALID = 0;
+    static final int EXPIRED = 1;
+    static final int UNKNOWN = 2;   // offline, server error — keep what we have
+
+    /** Scheme + host + port, for API calls. */
+    final String baseUrl;
+    /** The URL the user typed, which MainActivity loads. */
+    final String appUrl;
+    final String database;
+    /** Raw Set-Cookie header values, in the order the server sent them. */
+    final ArrayList<String> cookies;
+
+    OdooSession(String baseUrl, String appUrl, String database, List<String> cookies) {
+        this.baseUrl = baseUrl;
+        this.appUrl = appUrl;
+        this.database = database;
+        this.cookies = new ArrayList<>(cookies);
+    }
+
+    /** The stored session, or null if there is none or it can't be decrypted. */
+    static OdooSession load(Context ctx) {
+        SharedPreferences p = prefs(ctx);
+        String sealed = p.getString("cookies", null);
+        if (sealed == null) return null;
+        try {
+            JSONArray arr = new JSONArray(decrypt(sealed));
+            List<String> cookies = new ArrayList<>();
+            for (int i = 0; i < arr.length(); i++) cookies.add(arr.getString(i));
+            if (cookies.isEmpty()) return null;
+            return new OdooSession(p.getString("base_url", ""), p.getString("app_url", ""),
+                    p.getString("database", ""), cookies);
+        } catch (GeneralSecurityException | IOException | JSONException e) {
+            // Key gone (app data restored to another device, lock screen reset)
+            Log.w(TAG, "Dropping unreadable session: " + e.getMessage());
+            clear(ctx);
+            return null;
+        }
+    }
+
+    boolean save(Context ctx) {
+        try {
+            prefs(ctx).edit()
+                    .putString("base_url", baseUrl)
+                    .putString("app_url", appUrl)
+                    .putString("database", database)
+                    .putString("cookies", encrypt(new JSONArray(cookies).toString()))
+                    .apply();
+            return true;
+        } catch (GeneralSecurityException | IOException e) {
+            Log.e(TAG, "Could not store session", e);
+            return false;
+        }
+    }
+
+    /** Database of the stored session, "" if there is none. Needs no decryption. */
+    static String database(Context ctx) {
+        return prefs(ctx).getString("database", "");
+    }
+
+    static void clear(Context ctx) {
+        prefs(ctx).edit().clear().apply();
+    }
+
+    /** Hands the cookies to the WebView, for {@code url}'s host. */
+    void applyCookies(String url) {
+        CookieManager cm = CookieManager.getInstance();
+        cm.setAcceptCookie(true);
+        for (String c : cookies) cm.setCookie(url, c);
+        cm.flush();
+    }
+
+    /**
+     * Asks Odoo whether the session is still logged in, sending {@code cookies}
+     * ("name=value; …", e.g. the WebView's current ones) or the stored cookies
+     * if null or empty. Blocks on the network.
+     */
+    int check(String cookies) {
+        try {
+            HttpClient.JsonResponse resp = HttpClient.postJson(
+                    baseUrl + "/web/session/get_session_info", rpc(new JSONObject()),
+                    CHECK_TIMEOUT_MS, cookies != null && !cookies.isEmpty() ? cookies : cookieHeader());
+            JSONObject error = resp.body.optJSONObject("error");
+            // Any other error (access rights, server bug) says nothing about the session
+            if (error != null) return isSessionExpired(error) ? EXPIRED : UNKNOWN;
+            if (resp.code != 200) return UNKNOWN;
+            return loggedIn(resp) ? VALID : EXPIRED;
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Session check failed: " + e.getMessage());
+            return UNKNOWN;
+        }
+    }
+
+    /** POSTs /web/session/authenticate; see {@link #loggedIn} for the outcome. */
+    static HttpClient.JsonResponse authenticate(String baseUrl, String database,
+                                                String login, String password)
+            throws IOException, JSONException {
+        JSONObject params = new JSONObject();
+        params.put("db", database);
+        params.put("login", login);
+        params.put("password", password);
+        return HttpClient.postJson(baseUrl + "/web/session/authenticate", rpc(params), AUTH_TIMEOUT_MS);
+    }
+
+    /** Best-effort POST of /web/session/destroy, ending the session server-side. */
+    static void destroy(String baseUrl, String cookies) {
+        try {
+            HttpClient.postJson(baseUrl + "/web/session/destroy", rpc(new JSONObject()),
+                    CHECK_TIMEOUT_MS, cookies);
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Session destroy failed: " + e.getMessage());
+        }
+    }
+
+    /** True if an authenticate / get_session_info reply carries a user id. */
+    static boolean loggedIn(HttpClient.JsonResponse resp) {
+        JSONObject result = resp.body.optJSONObject("result");
+        Object uid = result != null ? result.opt("uid") : null;
+        return uid != null && !uid.equals(false) && !uid.equals(JSONObject.NULL)
+                && !String.valueOf(uid).equals("false");
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // HELPERS
+    // ──────────────────────────────────────────────────────────────────────────
+
+    /** Odoo's "Session Expired" RPC error: code 100 / odoo.http.SessionExpiredException. */
+    private static boolean isSessionExpired(JSONObject error) {
+        JSONObject data = error.optJSONObject("data");
+        String name = data != null ? data.optString("name", "") : "";
+        return error.optInt("code") == 100 || name.contains("SessionExpired");
+    }
+
+    /** "name=value; name=value" from the stored Set-Cookie headers. */
+    private String cookieHeader() {
+        StringBuilder sb = new StringBuilder();
+        for (String c : cookies) {
+            int semi = c.indexOf(';');
+            if (sb.length() > 0) sb.append("; ");
+            sb.append(semi >= 0 ? c.substring(0, semi) : c);
+        }
+        return sb.toString();
+    }
+
+    private static JSONObject rpc(JSONObject params) throws JSONException {
+        JSONObject body = new JSONObject();
+        body.put("jsonrpc", "2.0");
+        body.put("method", "call");
+        body.put("id", 1);
+        body.put("params", params);
+        return body;
+    }
+
+    private static SharedPreferences prefs(Context ctx) {
+        return ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /** base64(iv length, iv, ciphertext + tag). */
+    private static String encrypt(String plain) throws GeneralSecurityException, IOException {
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, key());
+        byte[] iv = cipher.getIV();
+        byte[] sealed = cipher.doFinal(plain.getBytes(StandardCharsets.UTF_8));
+        byte[] out = new byte[1 + iv.length + sealed.length];
+        out[0] = (byte) iv.length;
+        System.arraycopy(iv, 0, out, 1, iv.length);
+        System.arraycopy(sealed, 0, out, 1 + iv.length, sealed.length);
+        return Base64.encodeToString(out, Base64.NO_WRAP);
+    }
+
+    private static String decrypt(String encoded) throws GeneralSecurityException, IOException {
+        byte[] in = Base64.decode(encoded, Base64.NO_WRAP);
+        int ivLength = in[0] & 0xFF;
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, key(), new GCMParameterSpec(GCM_TAG_BITS, in, 1, ivLength));
+        byte[] plain = cipher.doFinal(in, 1 + ivLength, in.length - 1 - ivLength);
+        return new String(plain, StandardCharsets.UTF_8);
+    }
+
+    /** The Keystore key, created on first use. */
+    private static SecretKey key() throws GeneralSecurityException, IOException {
+        KeyStore ks = KeyStore.getInstance(KEYSTORE);
+        ks.load(null);
+        Key existing = ks.getKey(KEY_ALIAS, null);
+        if (existing instanceof SecretKey) return (SecretKey) existing;
+
+        KeyGenerator gen = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+        gen.init(new KeyGenParameterSpec.Builder(KEY_ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setKeySize(256)
+                .build());
+        return gen.generateKey();
+    }
+}
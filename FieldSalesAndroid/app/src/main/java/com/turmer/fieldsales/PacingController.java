@@ -0,0 +1,140 @@
+package com.turmer.fieldsales;
+
+/**
+ * Adaptive Bluetooth pacing for one print job.
+ *
+ * Replaces the old fixed "512 bytes then sleep 25 ms" loop with a token bucket
+ * running at the printer's learned sustainable rate. Writes only wait when
+ * they would get ahead of that rate, so a fast printer is never slowed down
+ * and a slow (Bixolon-class) printer is never fed faster than it drains.
+ *
+ * After the job the measured drain time (first byte → status reply) feeds
+ * {@link #learn}, which drops the profile's rate to the observed rate as soon
+ * as the printer falls behind. Raising it is slower: a status reply proves the
+ * bytes arrived, not that the printer kept all of them, so the rate only goes
+ * up after {@link #CLEAN_JOBS_BEFORE_RAISE} clean jobs in a row and never
+ * past the printer's ceiling (its calibrated burst rate).
+ *
+ * Pure Java — time is passed in, nothing here touches Android or sleeps.
+ */
+final class PacingController {
+
+    /** Never pace slower than this, whatever a bad measurement says. */
+    static final int MIN_BYTES_PER_SECOND = 4 * 1024;
+    /** At or above this rate pacing is switched off (SPP rarely exceeds it). */
+    static final int MAX_BYTES_PER_SECOND = 256 * 1024;
+    /** Jobs smaller than this are too short to learn a rate from. */
+    static final int MIN_LEARN_BYTES = 4 * 1024;
+    /** Consecutive jobs that must keep up before the rate is raised. */
+    static final int CLEAN_JOBS_BEFORE_RAISE = 5;
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final int bytesPerSecond;
+    private final int burstBytes;
+
+    private long startNs = -1;
+    private long linkFreeAtNs;
+    private long bytesSent;
+
+    PacingController(int bytesPerSecond, int chunkSize) {
+        this.bytesPerSecond = bytesPerSecond;
+        // Let one extra chunk sit in the printer's receive buffer
+        this.burstBytes = Math.max(chunkSize, 1);
+    }
+
+    boolean isUnpaced() {
+        return bytesPerSecond <= 0 || bytesPerSecond >= MAX_BYTES_PER_SECOND;
+    }
+
+    /**
+     * Reserves {@code len} bytes on the link at {@code nowNs}.
+     *
+     * @return nanoseconds the caller should wait before writing (0 = write now)
+     */
+    long reserve(int len, long nowNs) {
+        if (startNs < 0) {
+            startNs = nowNs;
+            linkFreeAtNs = nowNs;
+        }
+        bytesSent += len;
+        if (isUnpaced()) return 0;
+
+        // Bytes already "in flight" drain at bytesPerSecond; allow burstBytes of slack
+        long base = Math.max(linkFreeAtNs, nowNs);
+        long waitNs = base - nowNs - (burstBytes * NANOS_PER_SECOND) / bytesPerSecond;
+        linkFreeAtNs = base + (len * NANOS_PER_SECOND) / bytesPerSecond;
+        return Math.max(0, waitNs);
+    }
+
+    long bytesSent() {
+        return bytesSent;
+    }
+
+    /** Time the first byte of the job was reserved, or -1 if nothing was sent. */
+    long startNs() {
+        return startNs;
+    }
+
+    /**
+     * Estimated time still needed to push out what has been written, used as the
+     * tail wait when the printer does not answer status requests.
+     */
+    long estimatedRemainingNs(long nowNs, int fallbackBytesPerSecond) {
+        if (startNs < 0) return 0;
+        int rate = isUnpaced() ? fallbackBytesPerSecond : bytesPerSecond;
+        long needed = startNs + (bytesSent * NANOS_PER_SECOND) / Math.max(rate, MIN_BYTES_PER_SECOND);
+        return Math.max(0, needed - nowNs);
+    }
+
+    /** True if a job counts towards learning at all. */
+    static boolean isLearnable(long bytes, long sendNs) {
+        return bytes >= MIN_LEARN_BYTES && sendNs > 0;
+    }
+
+    /** True if the printer confirmed the job about as fast as it was sent. */
+    static boolean keptUp(long sendNs, long drainNs) {
+        return drainNs >= 0 && drainNs <= sendNs + sendNs / 5;
+    }
+
+    /**
+     * Derives the next sustainable rate for a printer.
+     *
+     * @param currentRate rate the job was paced at
+     * @param ceiling     highest rate this printer may be paced at
+     * @param cleanJobs   consecutive jobs that kept up, this one included
+     * @param bytes       bytes sent in the job
+     * @param sendNs      time spent writing (first byte → last write returned)
+     * @param drainNs     time until the printer confirmed receipt, or -1 on timeout
+     */
+    static int learn(int currentRate, int ceiling, int cleanJobs,
+                     long bytes, long sendNs, long drainNs) {
+        if (!isLearnable(bytes, sendNs)) return currentRate;
+
+        if (drainNs < 0) {
+            // No confirmation — assume we overran the printer and back off
+            return Math.max(MIN_BYTES_PER_SECOND, (int) (currentRate * 0.75));
+        }
+
+        long observed = bytes * NANOS_PER_SECOND / Math.max(drainNs, 1);
+        if (keptUp(sendNs, drainNs)) {
+            int cap = Math.min(ceiling, MAX_BYTES_PER_SECOND);
+            if (cleanJobs < CLEAN_JOBS_BEFORE_RAISE) return Math.min(currentRate, cap);
+            // Printer has kept up for a while — probe 25% faster, up to the ceiling
+            long next = Math.max(currentRate + currentRate / 4, observed);
+            return (int) Math.min(next, cap);
+        }
+
+        // Printer fell behind — settle just under what it actually drained
+        return (int) Math.max(MIN_BYTES_PER_SECOND, Math.min(currentRate, observed * 95 / 100));
+    }
+
+    /**
+     * Band height that keeps one band at roughly a quarter second on the wire,
+     * clamped to the range mobile printers handle reliably in one GS v 0 block.
+     */
+    static int bandHeightFor(int bytesPerSecond, int bytesPerRow) {
+        int rows = (bytesPerSecond / 4) / Math.max(bytesPerRow, 1);
+        return Math.max(64, Math.min(255, rows));
+    }
+}
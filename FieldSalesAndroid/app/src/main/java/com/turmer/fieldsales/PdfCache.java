@@ -0,0 +1,333 @@
+package com.turmer.fieldsales;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Report PDFs shared through {@code AndroidSettings.shareFile}, cached per
+ * account and URL.
+ *
+ * Each entry is a directory named by the SHA-256 of the scope (database and
+ * login — the same URL is a different document for another account) and the
+ * URL, holding the PDF body and {@code meta.json} with the response's ETag /
+ * Last-Modified. A share revalidates the entry with a conditional GET, and a
+ * 304 costs no body; the one exception is a {@link #prefetch} that hasn't been
+ * shared yet, which is used as is for {@link #FRESH_MS} so a prefetch right
+ * after order confirmation makes the share instant. If the server can't be
+ * reached, the cached copy is shared anyway.
+ *
+ * The file handed out is a hard link (a copy where linking fails) to the body
+ * under the requested name, in the entry's {@code share/} directory. A new
+ * download replaces the body, not the link, so a URI given to another app
+ * keeps reading the version it was given until the entry is evicted.
+ *
+ * Bodies are streamed to disk through a {@link FileChannel} with a large
+ * buffer. Entries are evicted least recently used first once the directory
+ * grows past its size cap. All fetches run on one background thread, so a
+ * share waits for a prefetch of the same PDF instead of downloading it twice.
+ */
+final class PdfCache {
+
+    private static final String TAG = "PdfCache";
+
+    /** Default total size entries are trimmed to. */
+    static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    /** How long after fetching an entry is shared without asking the server. */
+    static final long FRESH_MS = 5 * 60 * 1000L;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String META = "meta.json";
+    private static final String BODY = "body.pdf";
+    private static final String SHARE = "share";
+    private static final String DEFAULT_NAME = "document.pdf";
+
+    private static final ExecutorService FETCH = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "pdf-fetch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final File dir;
+    private final long maxBytes;
+
+    PdfCache(File dir) {
+        this(dir, DEFAULT_MAX_BYTES);
+    }
+
+    PdfCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Downloads {@code url} in the background if it isn't cached and fresh.
+     *
+     * @param scope who the document belongs to (database and login)
+     */
+    void prefetch(String scope, String url, String cookies) {
+        FETCH.execute(() -> {
+            try {
+                load(scope, url, cookies, null);
+            } catch (IOException e) {
+                Log.w(TAG, "Prefetch failed for " + url + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * The PDF at {@code url} as a local file called {@code filename}, fetched
+     * or revalidated as needed. Blocks; call off the UI thread.
+     *
+     * @param scope who the document belongs to (database and login)
+     */
+    File get(String scope, String url, String cookies, String filename) throws IOException {
+        Future<File> f = FETCH.submit(() -> load(scope, url, cookies, filename));
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // FETCH (pdf-fetch thread only)
+    // ──────────────────────────────────────────────────────────────────────────
+
+    /** Shares under {@code filename}, or just warms the entry when it is null. */
+    private File load(String scope, String url, String cookies, String filename) throws IOException {
+        File entry = new File(dir, sha256(scope + "\n" + url));
+        JSONObject meta = readMeta(entry);
+        File cached = meta != null ? new File(entry, BODY) : null;
+        if (cached != null && !cached.isFile()) {
+            cached = null;
+            meta = null;
+        }
+
+        boolean sharing = filename != null;
+        boolean recent = cached != null
+                && System.currentTimeMillis() - meta.optLong("checked_at") < FRESH_MS;
+        File pdf;
+        if (recent && (!sharing || !meta.optBoolean("shared", true))) {
+            // Prefetched moments ago and not handed out since
+            pdf = cached;
+            if (sharing) writeMeta(entry, meta, url, true, false);
+        } else {
+            try {
+                pdf = fetch(url, cookies, entry, meta, cached, sharing);
+            } catch (IOException e) {
+                if (cached == null) throw e;
+                Log.w(TAG, "Sharing cached copy, fetch failed: " + e.getMessage());
+                pdf = cached;
+            }
+        }
+
+        if (sharing) pdf = share(entry, pdf, filename);
+        entry.setLastModified(System.currentTimeMillis());
+        evict(entry);
+        return pdf;
+    }
+
+    private File fetch(String url, String cookies, File entry, JSONObject meta, File cached,
+                       boolean sharing) throws IOException {
+        HttpURLConnection conn = HttpClient.open(url);
+        if (cookies != null) conn.setRequestProperty("Cookie", cookies);
+        if (meta != null) {
+            String etag = meta.optString("etag", null);
+            String lastModified = meta.optString("last_modified", null);
+            if (etag != null) conn.setRequestProperty("If-None-Match", etag);
+            if (lastModified != null) conn.setRequestProperty("If-Modified-Since", lastModified);
+        }
+
+        int code = conn.getResponseCode();
+        if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+            HttpClient.discard(conn);
+            writeMeta(entry, meta, url, sharing, true);
+            return cached;
+        }
+        if (code != HttpURLConnection.HTTP_OK) {
+            HttpClient.discard(conn);
+            throw new IOException("HTTP " + code);
+        }
+
+        if (!entry.isDirectory() && !entry.mkdirs()) {
+            HttpClient.discard(conn);
+            throw new IOException("Cannot create " + entry);
+        }
+        File tmp = new File(entry, "download.tmp");
+        try (InputStream in = conn.getInputStream();
+             ReadableByteChannel src = Channels.newChannel(in);
+             FileChannel dst = new FileOutputStream(tmp).getChannel()) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while (src.read(buf) != -1) {
+                buf.flip();
+                while (buf.hasRemaining()) dst.write(buf);
+                buf.clear();
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+
+        File pdf = new File(entry, BODY);
+        if (!tmp.renameTo(pdf)) {
+            tmp.delete();
+            throw new IOException("Cannot store " + pdf);
+        }
+        JSONObject fresh = new JSONObject();
+        try {
+            fresh.put("etag", conn.getHeaderField("ETag"));
+            fresh.put("last_modified", conn.getHeaderField("Last-Modified"));
+        } catch (JSONException ignored) {}
+        writeMeta(entry, fresh, url, sharing, true);
+        return pdf;
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // HELPERS
+    // ──────────────────────────────────────────────────────────────────────────
+
+    /**
+     * Links the body into {@code share/} under the name it is shared as. The
+     * link is swapped in atomically, so a URI handed out earlier for the same
+     * name never points at a missing file.
+     */
+    private static File share(File entry, File pdf, String filename) throws IOException {
+        String name = filename.replaceAll("[/\\\\]", "_");
+        if (name.isEmpty() || name.startsWith(".")) name = DEFAULT_NAME;
+        File shareDir = new File(entry, SHARE);
+        if (!shareDir.isDirectory() && !shareDir.mkdirs()) {
+            throw new IOException("Cannot create " + shareDir);
+        }
+        File target = new File(shareDir, name);
+        File tmp = new File(shareDir, ".link.tmp");
+        tmp.delete();
+        try {
+            Files.createLink(tmp.toPath(), pdf.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(pdf.toPath(), tmp.toPath());
+        }
+        try {
+            Files.move(tmp.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        return target;
+    }
+
+    private static JSONObject readMeta(File entry) {
+        File f = new File(entry, META);
+        if (!f.isFile()) return null;
+        try (FileInputStream in = new FileInputStream(f)) {
+            byte[] data = new byte[(int) f.length()];
+            int off = 0, n;
+            while (off < data.length && (n = in.read(data, off, data.length - off)) > 0) off += n;
+            return new JSONObject(new String(data, 0, off, StandardCharsets.UTF_8));
+        } catch (IOException | JSONException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores validators and whether the entry has been handed out; {@code
+     * confirmed} marks it as just fetched or revalidated.
+     */
+    private static void writeMeta(File entry, JSONObject meta, String url, boolean shared,
+                                  boolean confirmed) {
+        try {
+            meta.put("url", url);
+            meta.put("shared", shared || meta.optBoolean("shared", false));
+            if (confirmed) meta.put("checked_at", System.currentTimeMillis());
+        } catch (JSONException ignored) {}
+        try (FileOutputStream out = new FileOutputStream(new File(entry, META))) {
+            out.write(meta.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write " + entry + "/" + META + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes least recently used entries until the directory fits in
+     * maxBytes, never {@code keep}. Loose files (PDFs shared before the
+     * cache existed) go first.
+     */
+    private void evict(File keep) {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        long total = 0;
+        for (File f : files) {
+            if (f.isDirectory()) {
+                total += sizeOf(f);
+            } else {
+                f.delete();
+            }
+        }
+        if (total <= maxBytes) return;
+
+        File[] entries = dir.listFiles(File::isDirectory);
+        if (entries == null) return;
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+        for (File e : entries) {
+            if (total <= maxBytes) break;
+            if (e.equals(keep)) continue;
+            total -= sizeOf(e);
+            deleteTree(e);
+        }
+    }
+
+    /** Size of an entry; share links are the body again and not counted. */
+    private static long sizeOf(File entry) {
+        long size = 0;
+        File[] children = entry.listFiles(File::isFile);
+        if (children != null) for (File c : children) size += c.length();
+        return size;
+    }
+
+    private static void deleteTree(File f) {
+        File[] children = f.listFiles();
+        if (children != null) for (File c : children) deleteTree(c);
+        f.delete();
+    }
+
+    private static String sha256(String s) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            StringBuilder sb = new StringBuilder();
+            for (byte b : md.digest(s.getBytes(StandardCharsets.UTF_8))) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (Exception e) {
+            return Integer.toHexString(s.hashCode());
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.turmer.fieldsales;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serialized print job queue with a single writer thread.
+ *
+ * Every job that touches the printer — receipts, calibration, switching
+ * printers — goes through here, so only one thread ever writes to the
+ * {@link EscPosPrinter} socket. Jobs run strictly in submission order over
+ * the same session; the session is only released once the queue runs dry.
+ *
+ * The queue is bounded: when {@link #CAPACITY} jobs are already waiting, new
+ * submissions are rejected immediately (the UI thread must never block on a
+ * slow printer) and the caller tells the user the printer is busy.
+ */
+final class PrintQueue {
+
+    private static final String TAG = "PrintQueue";
+
+    /** Jobs allowed to wait behind the one currently printing. */
+    static final int CAPACITY = 8;
+    /** Finished tickets kept for status queries from JS. */
+    private static final int HISTORY_SIZE = 20;
+
+    /** Work done on the writer thread with exclusive use of the printer. */
+    interface Job {
+        /** @return true if the job completed successfully */
+        boolean run(EscPosPrinter printer) throws Exception;
+    }
+
+    enum Status { QUEUED, CONNECTING, PRINTING, DONE, FAILED, NO_PRINTER, REJECTED }
+
+    /** Handle for one submitted job: live status plus a future for the final status. */
+    static final class Ticket {
+        final long id;
+        final String label;
+        final boolean needsConnection;
+        final CompletableFuture<Status> result = new CompletableFuture<>();
+        /** Stage timings; rendering stages may already be filled in by the caller. */
+        final PrintStats.Job trace;
+        private final Job job;
+        private final long submittedNs = System.nanoTime();
+        private volatile Status status = Status.QUEUED;
+
+        private Ticket(long id, String label, boolean needsConnection, PrintStats.Job trace, Job job) {
+            this.id = id;
+            this.label = label;
+            this.needsConnection = needsConnection;
+            this.trace = trace;
+            this.job = job;
+        }
+
+        Status status() {
+            return status;
+        }
+
+        private void finish(Status s) {
+            status = s;
+            result.complete(s);
+        }
+    }
+
+    private final EscPosPrinter printer;
+    private final BlockingQueue<Ticket> pending = new ArrayBlockingQueue<>(CAPACITY);
+    private final Deque<Ticket> history = new ArrayDeque<>();
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final PrintStats stats = new PrintStats();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    PrintQueue(EscPosPrinter printer) {
+        this.printer = printer;
+        this.writer = new Thread(this::writerLoop, "print-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /** Queues a job that needs a connected printer. Never blocks. */
+    Ticket submit(String label, Job job) {
+        return submit(label, true, job);
+    }
+
+    /**
+     * Queues a job. Jobs with {@code needsConnection = false} run without
+     * connecting first (e.g. closing the session). Never blocks — if the queue
+     * is full the returned ticket is already {@link Status#REJECTED}.
+     */
+    Ticket submit(String label, boolean needsConnection, Job job) {
+        return submit(new PrintStats.Job(label), needsConnection, job);
+    }
+
+    /** Queues a print job whose stage timings were started by the caller (render stages). */
+    Ticket submit(PrintStats.Job trace, Job job) {
+        return submit(trace, true, job);
+    }
+
+    private Ticket submit(PrintStats.Job trace, boolean needsConnection, Job job) {
+        String label = trace.label;
+        Ticket t = new Ticket(nextId.getAndIncrement(), label, needsConnection, trace, job);
+        remember(t);
+        if (!running || !pending.offer(t)) {
+            Log.w(TAG, "Queue full — rejected job " + t.id + " (" + label + ")");
+            t.finish(Status.REJECTED);
+        }
+        return t;
+    }
+
+    /** Timings of recent jobs that reached the printer. */
+    PrintStats stats() {
+        return stats;
+    }
+
+    /** Number of jobs waiting (not counting the one printing). */
+    int backlog() {
+        return pending.size();
+    }
+
+    /** Recent jobs, newest first, as JSON for the JS bridge. */
+    String describe() {
+        JSONArray arr = new JSONArray();
+        synchronized (history) {
+            for (Ticket t : history) {
+                try {
+                    JSONObject o = new JSONObject();
+                    o.put("id", t.id);
+                    o.put("label", t.label);
+                    o.put("status", t.status().name());
+                    arr.put(o);
+                } catch (Exception ignored) {}
+            }
+        }
+        return arr.toString();
+    }
+
+    /** Stops accepting jobs, drops whatever is still waiting and shuts the printer down. */
+    void shutdown() {
+        running = false;
+        Ticket t;
+        while ((t = pending.poll()) != null) t.finish(Status.REJECTED);
+        writer.interrupt();
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // WRITER THREAD
+    // ──────────────────────────────────────────────────────────────────────────
+
+    private void writerLoop() {
+        while (running) {
+            Ticket t;
+            try {
+                t = pending.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            run(t);
+            // Keep the session between back-to-back jobs; arm the idle close when drained
+            if (pending.isEmpty()) printer.release();
+        }
+        printer.shutdown();
+    }
+
+    private void run(Ticket t) {
+        t.trace.add(PrintStats.QUEUE, System.nanoTime() - t.submittedNs);
+        try {
+            if (t.needsConnection) {
+                t.status = Status.CONNECTING;
+                long connectStart = System.nanoTime();
+                boolean connected = printer.connect();
+                t.trace.add(PrintStats.CONNECT, System.nanoTime() - connectStart);
+                t.trace.connectStrategy = printer.getConnectStrategy();
+                if (!connected) {
+                    finish(t, Status.NO_PRINTER);
+                    return;
+                }
+            }
+            t.status = Status.PRINTING;
+            printer.trace(t.trace);
+            boolean ok;
+            try {
+                ok = t.job.run(printer);
+            } finally {
+                printer.trace(null);
+            }
+            finish(t, ok ? Status.DONE : Status.FAILED);
+        } catch (Exception e) {
+            Log.e(TAG, "Job " + t.id + " (" + t.label + ") failed", e);
+            finish(t, Status.FAILED);
+        }
+    }
+
+    private void finish(Ticket t, Status s) {
+        // Settings jobs that sent nothing would only dilute the percentiles
+        if (t.trace.bytes() > 0 || s != Status.DONE) stats.record(t.trace, s.name());
+        t.finish(s);
+    }
+
+    private void remember(Ticket t) {
+        synchronized (history) {
+            history.addFirst(t);
+            while (history.size() > HISTORY_SIZE) history.removeLast();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.turmer.fieldsales;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-stage timings of recent print jobs, for diagnosing slow prints in the
+ * field and checking that tuning helped.
+ *
+ * Each job carries a {@link Job} trace from the moment the receipt starts
+ * loading until the printer has drained. Stages are filled in by whichever
+ * thread does the work (UI, print writer, encoder), so pipelined stages
+ * overlap and do not add up to the total. Finished traces are kept in a ring
+ * of the last {@link #CAPACITY} jobs and summarised as percentiles.
+ */
+final class PrintStats {
+
+    private static final String TAG = "PrintStats";
+
+    /** Jobs kept for the summary. */
+    static final int CAPACITY = 50;
+
+    // Stages, in pipeline order
+    static final int LOAD = 0;      // loadDataWithBaseURL → onPageFinished
+    static final int SETTLE = 1;    // onPageFinished → images, fonts, layout ready
+    static final int LAYOUT = 2;    // full-height layout of the page
+    static final int RENDER = 3;    // view.draw() into tiles (UI thread)
+    static final int QUEUE = 4;     // waiting behind other print jobs
+    static final int CONNECT = 5;   // Bluetooth connect (0 on a live session)
+    static final int ENCODE = 6;    // raster encoding incl. waits for tiles (encoder thread)
+    static final int TRANSMIT = 7;  // paced writes to the socket
+    static final int DRAIN = 8;     // waiting for the printer to confirm
+
+    private static final String[] STAGES = {
+            "load", "settle", "layout", "render", "queue", "connect", "encode", "transmit", "drain"
+    };
+
+    /** Timings of one job; safe to update from any thread. */
+    static final class Job {
+        final String label;
+        final long startedAt = System.currentTimeMillis();
+        private final long startNs = System.nanoTime();
+        private final AtomicLongArray stageNs = new AtomicLongArray(STAGES.length);
+        private final AtomicLong bytes = new AtomicLong();
+        volatile String connectStrategy;
+        volatile String commandSet;
+        private String status;
+        private long totalNs;
+
+        Job(String label) {
+            this.label = label;
+        }
+
+        void add(int stage, long nanos) {
+            stageNs.addAndGet(stage, nanos);
+        }
+
+        void addBytes(long n) {
+            bytes.addAndGet(n);
+        }
+
+        long bytes() {
+            return bytes.get();
+        }
+
+        /** Bytes per second over the transmit stage, 0 if nothing was sent. */
+        long bytesPerSecond() {
+            long ns = stageNs.get(TRANSMIT);
+            return ns > 0 ? bytes.get() * 1_000_000_000L / ns : 0;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject o = new JSONObject();
+            o.put("label", label);
+            o.put("started_at", startedAt);
+            o.put("status", status);
+            o.put("total_ms", millis(totalNs));
+            JSONObject stages = new JSONObject();
+            for (int i = 0; i < STAGES.length; i++) {
+                long ns = stageNs.get(i);
+                if (ns > 0) stages.put(STAGES[i], millis(ns));
+            }
+            o.put("stages_ms", stages);
+            o.put("bytes", bytes.get());
+            o.put("bytes_per_second", bytesPerSecond());
+            if (connectStrategy != null) o.put("connect_strategy", connectStrategy);
+            if (commandSet != null) o.put("command_set", commandSet);
+            return o;
+        }
+    }
+
+    private final Deque<Job> recent = new ArrayDeque<>();
+
+    /** Closes {@code job} with its final status and adds it to the ring. */
+    synchronized void record(Job job, String status) {
+        job.status = status;
+        job.totalNs = System.nanoTime() - job.startNs;
+        recent.addFirst(job);
+        while (recent.size() > CAPACITY) recent.removeLast();
+        Log.d(TAG, job.label + " " + status + " in " + millis(job.totalNs) + " ms, "
+                + job.bytes() + " bytes @ " + job.bytesPerSecond() + " B/s");
+    }
+
+    /**
+     * Recent jobs (newest first) plus p50 / p90 / p99 / max per stage, for the
+     * total and for effective throughput.
+     */
+    synchronized String toJson() {
+        try {
+            JSONObject root = new JSONObject();
+            JSONArray jobs = new JSONArray();
+            for (Job j : recent) jobs.put(j.toJson());
+            root.put("jobs", jobs);
+
+            JSONObject summary = new JSONObject();
+            int n = recent.size();
+            for (int s = 0; s < STAGES.length; s++) {
+                long[] values = new long[n];
+                int i = 0;
+                for (Job j : recent) values[i++] = j.stageNs.get(s);
+                summary.put(STAGES[s] + "_ms", percentiles(values, true));
+            }
+            long[] totals = new long[n];
+            long[] rates = new long[n];
+            int i = 0;
+            for (Job j : recent) {
+                totals[i] = j.totalNs;
+                rates[i++] = j.bytesPerSecond();
+            }
+            summary.put("total_ms", percentiles(totals, true));
+            summary.put("bytes_per_second", percentiles(rates, false));
+            root.put("summary", summary);
+            root.put("count", n);
+            return root.toString();
+        } catch (JSONException e) {
+            return "{}";
+        }
+    }
+
+    /** Writes {@link #toJson()} to {@code file}. */
+    boolean export(File file) {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) return false;
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(toJson().getBytes(StandardCharsets.UTF_8));
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Could not export print stats", e);
+            return false;
+        }
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // HELPERS
+    // ──────────────────────────────────────────────────────────────────────────
+
+    /** Nearest-rank percentiles; nanoseconds are reported as milliseconds. */
+    private static JSONObject percentiles(long[] values, boolean nanos) throws JSONException {
+        JSONObject o = new JSONObject();
+        if (values.length == 0) return o;
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        double[] ranks = {0.50, 0.90, 0.99};
+        String[] names = {"p50", "p90", "p99"};
+        for (int i = 0; i < ranks.length; i++) {
+            int idx = (int) Math.ceil(ranks[i] * sorted.length) - 1;
+            long v = sorted[Math.max(0, idx)];
+            o.put(names[i], nanos ? millis(v) : v);
+        }
+        long max = sorted[sorted.length - 1];
+        o.put("max", nanos ? millis(max) : max);
+        return o;
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 100_000.0) / 10.0;
+    }
+}
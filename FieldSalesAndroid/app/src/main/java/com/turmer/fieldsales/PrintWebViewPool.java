@@ -0,0 +1,107 @@
+package com.turmer.fieldsales;
+
+import android.app.Activity;
+import android.util.Log;
+import android.view.ViewGroup;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+import android.widget.FrameLayout;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Small pool of offscreen WebViews used to render receipts for printing.
+ *
+ * Creating a Chromium WebView and running its first layout costs hundreds of
+ * milliseconds on mid-range devices, and renderAndPrint used to pay that on
+ * every receipt. Pooled views are created with their settings applied,
+ * attached far off-screen, and kept between jobs; {@link #release} resets a
+ * view with a blank page so nothing of the previous receipt survives.
+ *
+ * UI thread only. Idle views are dropped on memory pressure ({@link #trim}).
+ */
+final class PrintWebViewPool {
+
+    private static final String TAG = "PrintWebViewPool";
+
+    /** Idle views kept around; more than this are destroyed on release. */
+    static final int MAX_IDLE = 2;
+
+    // ── CRITICAL: Use a large fixed height (not WRAP_CONTENT) ──
+    // WRAP_CONTENT causes the offscreen WebView to stop rendering content
+    // beyond the screen height, cutting off totals, QR codes, and disclaimers.
+    // This is only the initial viewport: before capture the view is laid out
+    // to the measured content height, which may be longer.
+    static final int RENDER_HEIGHT = 10000;
+
+    private final Activity activity;
+    private final Deque<WebView> idle = new ArrayDeque<>();
+
+    PrintWebViewPool(Activity activity) {
+        this.activity = activity;
+    }
+
+    /** Creates one idle view ahead of the first print, so it is already warm. */
+    void warmUp(int width) {
+        if (idle.isEmpty() && !activity.isFinishing()) idle.push(create(width));
+    }
+
+    /** A ready offscreen WebView laid out {@code width} px wide. */
+    WebView acquire(int width) {
+        WebView view = idle.poll();
+        if (view == null) return create(width);
+        setWidth(view, width);
+        return view;
+    }
+
+    /**
+     * Returns a view after its job: blank page, no leftover bridge or client.
+     * Beyond {@link #MAX_IDLE} idle views it is destroyed instead.
+     */
+    void release(WebView view) {
+        view.removeJavascriptInterface(RenderReadiness.BRIDGE);
+        view.setWebViewClient(new WebViewClient());
+        if (idle.size() >= MAX_IDLE || activity.isFinishing()) {
+            destroy(view);
+            return;
+        }
+        view.stopLoading();
+        view.loadUrl("about:blank");
+        view.clearHistory();
+        idle.push(view);
+    }
+
+    /** Destroys every idle view (memory pressure, activity going away). */
+    void trim() {
+        if (!idle.isEmpty()) Log.d(TAG, "Releasing " + idle.size() + " idle print WebView(s)");
+        WebView view;
+        while ((view = idle.poll()) != null) destroy(view);
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // HELPERS
+    // ──────────────────────────────────────────────────────────────────────────
+
+    private WebView create(int width) {
+        WebView view = new WebView(activity);
+        view.getSettings().setJavaScriptEnabled(true);
+        FrameLayout.LayoutParams lp = new FrameLayout.LayoutParams(width, RENDER_HEIGHT);
+        lp.leftMargin = -20000; // Push far off-screen so it's never visible
+        view.setLayoutParams(lp);
+        ((ViewGroup) activity.getWindow().getDecorView()).addView(view);
+        return view;
+    }
+
+    private static void setWidth(WebView view, int width) {
+        ViewGroup.LayoutParams lp = view.getLayoutParams();
+        if (lp.width == width) return;
+        lp.width = width;
+        view.setLayoutParams(lp);
+    }
+
+    private void destroy(WebView view) {
+        ((ViewGroup) activity.getWindow().getDecorView()).removeView(view);
+        view.destroy();
+    }
+}
@@ -0,0 +1,153 @@
+package com.turmer.fieldsales;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+/**
+ * Per-printer tuning and connect strategy, keyed by Bluetooth MAC and
+ * persisted in FieldSalesPrefs as a small JSON blob ("printer_profile_AA:BB:…").
+ *
+ * Values start conservative (the old fixed 512-byte / 25 ms pacing ≈ 20 KB/s,
+ * 200-row bands) and are refined by calibration and by what each print job
+ * actually observes on the wire.
+ */
+final class PrinterProfile {
+
+    private static final String TAG = "PrinterProfile";
+    private static final String PREFS_NAME = "FieldSalesPrefs";
+    private static final String KEY_PREFIX = "printer_profile_";
+
+    static final int DEFAULT_BYTES_PER_SECOND = 20 * 1024;
+    static final int DEFAULT_CHUNK_SIZE = 512;
+    static final int DEFAULT_BAND_HEIGHT = 200;
+    static final int DEFAULT_DPI = 203;
+
+    /** DLE EOT support: not yet probed / printer answers / printer stays silent. */
+    static final int STATUS_UNKNOWN = -1;
+    static final int STATUS_NONE = 0;
+    static final int STATUS_OK = 1;
+
+    final String mac;
+    int connectStrategy = -1;          // EscPosPrinter.STRATEGY_*, -1 = not yet known
+    int bytesPerSecond = DEFAULT_BYTES_PER_SECOND;
+    int maxBytesPerSecond = 0;         // burst rate measured by calibration, 0 = not calibrated
+    int chunkSize = DEFAULT_CHUNK_SIZE;
+    int bandHeight = DEFAULT_BAND_HEIGHT;
+    int statusSupport = STATUS_UNKNOWN;
+    boolean calibrated = false;
+    // RasterCommandSet ids this printer's firmware handles, comma-separated,
+    // and the one of them every job is encoded with (chosen at setup)
+    String commandSets = RasterCommandSet.GS_V0;
+    String commandSet = RasterCommandSet.GS_V0;
+    int threshold = RasterEncoder.DEFAULT_THRESHOLD; // luminance below this prints a dot
+    String logoHash = "";              // NvLogo.hash of the logo in the printer's NV memory
+    int dpi = DEFAULT_DPI;             // print head density: 203 or 300 dots per inch
+
+    // Consecutive jobs the printer kept up with (PacingController.learn); not persisted
+    int cleanJobs;
+
+    // JSON last loaded or saved, so unchanged profiles are not written again
+    private String savedJson;
+
+    PrinterProfile(String mac) {
+        this.mac = mac != null ? mac : "";
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // PERSISTENCE
+    // ──────────────────────────────────────────────────────────────────────────
+
+    static PrinterProfile load(Context context, String mac) {
+        PrinterProfile p = new PrinterProfile(mac);
+        String json = prefs(context).getString(KEY_PREFIX + p.mac, null);
+        if (json == null) return p;
+        try {
+            p.readJson(new JSONObject(json));
+            p.savedJson = json;
+        } catch (Exception e) {
+            Log.w(TAG, "Corrupt profile for " + p.mac + ", using defaults");
+        }
+        return p;
+    }
+
+    /** Persists the profile if anything changed since it was loaded or last saved. */
+    void save(Context context) {
+        try {
+            String json = toJson().toString();
+            if (json.equals(savedJson)) return;
+            prefs(context).edit().putString(KEY_PREFIX + mac, json).apply();
+            savedJson = json;
+        } catch (Exception e) {
+            Log.w(TAG, "Could not save profile for " + mac + ": " + e.getMessage());
+        }
+    }
+
+    JSONObject toJson() throws org.json.JSONException {
+        JSONObject o = new JSONObject();
+        o.put("connect_strategy", connectStrategy);
+        o.put("bytes_per_second", bytesPerSecond);
+        o.put("max_bytes_per_second", maxBytesPerSecond);
+        o.put("chunk_size", chunkSize);
+        o.put("band_height", bandHeight);
+        o.put("status_support", statusSupport);
+        o.put("calibrated", calibrated);
+        o.put("command_sets", commandSets);
+        o.put("command_set", commandSet);
+        o.put("threshold", threshold);
+        o.put("logo_hash", logoHash);
+        o.put("dpi", dpi);
+        return o;
+    }
+
+    void readJson(JSONObject o) {
+        connectStrategy = o.optInt("connect_strategy", -1);
+        bytesPerSecond = o.optInt("bytes_per_second", DEFAULT_BYTES_PER_SECOND);
+        maxBytesPerSecond = o.optInt("max_bytes_per_second", 0);
+        chunkSize = o.optInt("chunk_size", DEFAULT_CHUNK_SIZE);
+        bandHeight = o.optInt("band_height", DEFAULT_BAND_HEIGHT);
+        statusSupport = o.optInt("status_support", STATUS_UNKNOWN);
+        calibrated = o.optBoolean("calibrated", false);
+        commandSets = o.optString("command_sets", RasterCommandSet.GS_V0);
+        commandSet = o.optString("command_set", RasterCommandSet.GS_V0);
+        if (!supports(commandSet)) commandSet = RasterCommandSet.parse(commandSets).get(0).id();
+        threshold = o.optInt("threshold", RasterEncoder.DEFAULT_THRESHOLD);
+        logoHash = o.optString("logo_hash", "");
+        dpi = o.optInt("dpi", DEFAULT_DPI);
+    }
+
+    /** Whether raster command set {@code id} is enabled for this printer. */
+    boolean supports(String id) {
+        for (RasterCommandSet cs : RasterCommandSet.parse(commandSets)) {
+            if (cs.id().equals(id)) return true;
+        }
+        return false;
+    }
+
+    /** Whether the printer stores graphics in NV memory (GS ( L fn 67 / 69, see NvLogo). */
+    boolean supportsNvGraphics() {
+        return supports(RasterCommandSet.GS_PAREN_L);
+    }
+
+    /**
+     * Fastest rate pacing may learn up to: the calibrated burst rate, or the
+     * conservative default for a printer that was never calibrated.
+     */
+    int rateCeiling() {
+        return maxBytesPerSecond > 0 ? maxBytesPerSecond : DEFAULT_BYTES_PER_SECOND;
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public String toString() {
+        return mac + " {" + bytesPerSecond + " B/s, chunk " + chunkSize
+                + ", band " + bandHeight + ", status " + statusSupport
+                + ", raster " + commandSet + " of " + commandSets + ", threshold " + threshold + ", " + dpi + " dpi"
+                + (calibrated ? ", calibrated" : "") + "}";
+    }
+}
@@ -0,0 +1,290 @@
+package com.turmer.fieldsales;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One way of putting a block of packed raster rows on the wire.
+ *
+ * {@link BandEncoder} does the thresholding, packing and blank-row detection
+ * and hands each finished block of rows (row-major, 8 dots per byte, MSB =
+ * leftmost) to the command set selected in the printer's profile. Printers
+ * differ in which graphics commands they handle reliably and how compactly,
+ * so each profile lists the sets its firmware supports and one of them is
+ * chosen when the printer is set up (see {@link #cheapest}) and used for
+ * every job after that.
+ */
+interface RasterCommandSet {
+
+    String GS_V0 = "gs_v0";
+    String ESC_STAR = "esc_star";
+    String GS_PAREN_L = "gs_paren_l";
+
+    /** Stable id stored in printer profiles. */
+    String id();
+
+    /** Upper bound of {@link #encodeBlock} output for a block of this size. */
+    int maxBlockSize(int bytesPerRow, int rows);
+
+    /**
+     * Encodes {@code rows} packed rows starting at {@code src[srcOffset]} into
+     * {@code dst[dstOffset]}.
+     *
+     * @return bytes written
+     */
+    int encodeBlock(byte[] src, int srcOffset, int bytesPerRow, int rows, byte[] dst, int dstOffset);
+
+    /** Upper bound of {@link #encodeFeed} output. */
+    int maxFeedSize(int rows);
+
+    /** Advances the paper by {@code rows} dots without printing. @return bytes written */
+    int encodeFeed(int rows, byte[] dst, int dstOffset);
+
+    /** Sent once before the first block of a job (may be empty). */
+    byte[] jobPrefix();
+
+    /** Sent once after the last block of a job (may be empty). */
+    byte[] jobSuffix();
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // REGISTRY
+    // ──────────────────────────────────────────────────────────────────────────
+
+    /** The set for {@code id}, falling back to GS v 0 (supported everywhere). */
+    static RasterCommandSet forId(String id) {
+        if (ESC_STAR.equals(id)) return new EscStar();
+        if (GS_PAREN_L.equals(id)) return new GsParenL();
+        return new GsV0();
+    }
+
+    /** All known sets, for bytes-on-wire comparisons. */
+    static List<RasterCommandSet> all() {
+        List<RasterCommandSet> sets = new ArrayList<>();
+        sets.add(new GsV0());
+        sets.add(new EscStar());
+        sets.add(new GsParenL());
+        return sets;
+    }
+
+    /**
+     * Encodes {@code src} once per candidate (same band height, same blank-row
+     * skipping) and returns each id with its total bytes on the wire, in
+     * candidate order.
+     */
+    static Map<String, Long> compare(List<RasterCommandSet> candidates, BandEncoder encoder,
+                                     BandEncoder.RowSource src, int bandHeight) {
+        Map<String, Long> sizes = new LinkedHashMap<>();
+        for (RasterCommandSet cs : candidates) {
+            encoder.setCommandSet(cs);
+            encoder.reset();
+            long total = cs.jobPrefix().length + cs.jobSuffix().length;
+            for (int y = 0; y < src.height(); y += bandHeight) {
+                total += encoder.encode(src, y, Math.min(bandHeight, src.height() - y));
+            }
+            total += encoder.finish();
+            sizes.put(cs.id(), total);
+        }
+        return sizes;
+    }
+
+    /**
+     * The candidate that puts the fewest bytes on the wire for {@code src}.
+     * Renders nothing but encodes {@code src} once per candidate, so this is
+     * for printer setup, not for every job.
+     */
+    static RasterCommandSet cheapest(List<RasterCommandSet> candidates, BandEncoder encoder,
+                                     BandEncoder.RowSource src, int bandHeight) {
+        if (candidates.size() == 1) return candidates.get(0);
+        Map<String, Long> sizes = compare(candidates, encoder, src, bandHeight);
+        RasterCommandSet best = candidates.get(0);
+        for (RasterCommandSet cs : candidates) {
+            if (sizes.get(cs.id()) < sizes.get(best.id())) best = cs;
+        }
+        return best;
+    }
+
+    /** Parses a comma-separated id list; unknown ids are dropped, GS v 0 if empty. */
+    static List<RasterCommandSet> parse(String csv) {
+        List<RasterCommandSet> sets = new ArrayList<>();
+        if (csv != null) {
+            for (String id : csv.split(",")) {
+                String trimmed = id.trim();
+                for (RasterCommandSet cs : all()) {
+                    if (cs.id().equals(trimmed)) sets.add(cs);
+                }
+            }
+        }
+        if (sets.isEmpty()) sets.add(new GsV0());
+        return sets;
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // ESC J — shared paper feed for the ESC/POS sets
+    // ──────────────────────────────────────────────────────────────────────────
+
+    /** ESC J n — print buffer and feed n motion units, split into ≤ 255 steps. */
+    static int escJFeed(int rows, byte[] dst, int offset) {
+        int start = offset;
+        while (rows > 0) {
+            int n = Math.min(255, rows);
+            dst[offset++] = 0x1B;
+            dst[offset++] = 0x4A;
+            dst[offset++] = (byte) n;
+            rows -= n;
+        }
+        return offset - start;
+    }
+
+    static int escJFeedSize(int rows) {
+        return (rows / 255 + 1) * 3;
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // GS v 0 — raster bit image, normal density (universal default)
+    // ──────────────────────────────────────────────────────────────────────────
+
+    final class GsV0 implements RasterCommandSet {
+        @Override public String id() { return GS_V0; }
+
+        @Override
+        public int maxBlockSize(int bytesPerRow, int rows) {
+            return RasterEncoder.GS_V0_HEADER_SIZE + bytesPerRow * rows;
+        }
+
+        @Override
+        public int encodeBlock(byte[] src, int srcOffset, int bytesPerRow, int rows,
+                               byte[] dst, int dstOffset) {
+            RasterEncoder.writeGsV0Header(dst, dstOffset, bytesPerRow, rows);
+            System.arraycopy(src, srcOffset, dst, dstOffset + RasterEncoder.GS_V0_HEADER_SIZE,
+                    bytesPerRow * rows);
+            return RasterEncoder.GS_V0_HEADER_SIZE + bytesPerRow * rows;
+        }
+
+        @Override public int maxFeedSize(int rows) { return escJFeedSize(rows); }
+        @Override public int encodeFeed(int rows, byte[] dst, int off) { return escJFeed(rows, dst, off); }
+        @Override public byte[] jobPrefix() { return new byte[0]; }
+        @Override public byte[] jobSuffix() { return new byte[0]; }
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // ESC * 33 — 24-dot double-density column mode (older units that choke on GS v 0)
+    // Each 24-row stripe: ESC * 33 nL nH + 3 bytes per column, then ESC J to advance.
+    // ──────────────────────────────────────────────────────────────────────────
+
+    final class EscStar implements RasterCommandSet {
+        private static final int STRIPE = 24;
+
+        @Override public String id() { return ESC_STAR; }
+
+        @Override
+        public int maxBlockSize(int bytesPerRow, int rows) {
+            int stripes = (rows + STRIPE - 1) / STRIPE;
+            return stripes * (5 + 3 * bytesPerRow * 8 + 3);
+        }
+
+        @Override
+        public int encodeBlock(byte[] src, int srcOffset, int bytesPerRow, int rows,
+                               byte[] dst, int dstOffset) {
+            int dots = bytesPerRow * 8;
+            int d = dstOffset;
+            for (int top = 0; top < rows; top += STRIPE) {
+                int stripeRows = Math.min(STRIPE, rows - top);
+                dst[d++] = 0x1B;                 // ESC
+                dst[d++] = 0x2A;                 // *
+                dst[d++] = 33;                   // m = 24-dot double density
+                dst[d++] = (byte) (dots & 0xFF); // nL
+                dst[d++] = (byte) (dots >> 8);   // nH
+                for (int x = 0; x < dots; x++) {
+                    int byteCol = x >> 3;
+                    int mask = 0x80 >> (x & 7);
+                    for (int k = 0; k < 3; k++) {
+                        int b = 0;
+                        for (int bit = 0; bit < 8; bit++) {
+                            int r = k * 8 + bit;
+                            if (r < stripeRows
+                                    && (src[srcOffset + (top + r) * bytesPerRow + byteCol] & mask) != 0) {
+                                b |= 0x80 >> bit;
+                            }
+                        }
+                        dst[d++] = (byte) b;
+                    }
+                }
+                // Print the stripe and advance by the rows it really covers
+                d += escJFeed(stripeRows, dst, d);
+            }
+            return d - dstOffset;
+        }
+
+        @Override public int maxFeedSize(int rows) { return escJFeedSize(rows); }
+        @Override public int encodeFeed(int rows, byte[] dst, int off) { return escJFeed(rows, dst, off); }
+        @Override public byte[] jobPrefix() { return new byte[0]; }
+        @Override public byte[] jobSuffix() { return new byte[0]; }
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // GS ( L fn 112 + fn 50 — store raster graphics in the print buffer, then print
+    // (Epson TM-series and compatibles; GS 8 L form for blocks over 64 KB)
+    // ──────────────────────────────────────────────────────────────────────────
+
+    final class GsParenL implements RasterCommandSet {
+        private static final int PARAMS = 10; // m fn a bx by c xL xH yL yH
+
+        @Override public String id() { return GS_PAREN_L; }
+
+        @Override
+        public int maxBlockSize(int bytesPerRow, int rows) {
+            return 3 + 4 + PARAMS + bytesPerRow * rows + 7;
+        }
+
+        @Override
+        public int encodeBlock(byte[] src, int srcOffset, int bytesPerRow, int rows,
+                               byte[] dst, int dstOffset) {
+            int dataLen = bytesPerRow * rows;
+            int p = PARAMS + dataLen;
+            int dots = bytesPerRow * 8;
+            int d = dstOffset;
+            dst[d++] = 0x1D;                          // GS
+            if (p <= 0xFFFF) {
+                dst[d++] = 0x28;                      // (
+                dst[d++] = 0x4C;                      // L
+                dst[d++] = (byte) (p & 0xFF);         // pL
+                dst[d++] = (byte) (p >> 8);           // pH
+            } else {
+                dst[d++] = 0x38;                      // 8
+                dst[d++] = 0x4C;                      // L
+                dst[d++] = (byte) (p & 0xFF);         // p1
+                dst[d++] = (byte) (p >> 8);           // p2
+                dst[d++] = (byte) (p >> 16);          // p3
+                dst[d++] = (byte) (p >> 24);          // p4
+            }
+            dst[d++] = 0x30;                          // m
+            dst[d++] = 112;                           // fn = store raster graphics
+            dst[d++] = 0x30;                          // a = monochrome
+            dst[d++] = 0x01;                          // bx = 1
+            dst[d++] = 0x01;                          // by = 1
+            dst[d++] = 0x31;                          // c = colour 1
+            dst[d++] = (byte) (dots & 0xFF);          // xL
+            dst[d++] = (byte) (dots >> 8);            // xH
+            dst[d++] = (byte) (rows & 0xFF);          // yL
+            dst[d++] = (byte) (rows >> 8);            // yH
+            System.arraycopy(src, srcOffset, dst, d, dataLen);
+            d += dataLen;
+            // GS ( L pL pH m fn=50 — print the buffered graphics
+            dst[d++] = 0x1D;
+            dst[d++] = 0x28;
+            dst[d++] = 0x4C;
+            dst[d++] = 0x02;
+            dst[d++] = 0x00;
+            dst[d++] = 0x30;
+            dst[d++] = 50;
+            return d - dstOffset;
+        }
+
+        @Override public int maxFeedSize(int rows) { return escJFeedSize(rows); }
+        @Override public int encodeFeed(int rows, byte[] dst, int off) { return escJFeed(rows, dst, off); }
+        @Override public byte[] jobPrefix() { return new byte[0]; }
+        @Override public byte[] jobSuffix() { return new byte[0]; }
+    }
+}
@@ -0,0 +1,161 @@
+package com.turmer.fieldsales;
+
+/**
+ * Pure-Java core of the ESC/POS raster encoder.
+ *
+ * Works on plain ARGB {@code int[]} rows (the format returned by
+ * {@code Bitmap.getPixels}) so the threshold and bit-packing math has no
+ * Android dependency and produces exactly the same bytes as the original
+ * per-pixel {@code getPixel} encoder:
+ *  - luminance = (77·R + 150·G + 29·B) >> 8
+ *  - a dot is printed when luminance < threshold (128 by default)
+ *  - 8 dots per byte, MSB = leftmost, padding bits are 0
+ */
+final class RasterEncoder {
+
+    /** Luminance below this value prints a dot. */
+    static final int DEFAULT_THRESHOLD = 128;
+
+    /** Size of the GS v 0 m xL xH yL yH header. */
+    static final int GS_V0_HEADER_SIZE = 8;
+
+    private RasterEncoder() {}
+
+    /** Bytes per raster row, rounded up to a whole byte. */
+    static int bytesPerRow(int width) {
+        return (width + 7) >> 3;
+    }
+
+    /** True when the ARGB pixel is dark enough to print a dot. */
+    static boolean isDark(int argb, int threshold) {
+        int r = (argb >> 16) & 0xFF;
+        int g = (argb >> 8) & 0xFF;
+        int b = argb & 0xFF;
+        return ((77 * r + 150 * g + 29 * b) >> 8) < threshold;
+    }
+
+    /**
+     * Packs one row of {@code width} ARGB pixels starting at {@code src[srcOffset]}
+     * into {@link #bytesPerRow(int)} bytes at {@code dst[dstOffset]}.
+     */
+    static void packRow(int[] src, int srcOffset, int width,
+                        byte[] dst, int dstOffset, int threshold) {
+        int fullBytes = width >> 3;
+        int s = srcOffset;
+        int d = dstOffset;
+
+        // ── Fast path: whole bytes, no bounds check per bit ──
+        for (int i = 0; i < fullBytes; i++) {
+            int b = 0;
+            for (int bit = 7; bit >= 0; bit--) {
+                int p = src[s++];
+                int gray = (77 * ((p >> 16) & 0xFF) + 150 * ((p >> 8) & 0xFF) + 29 * (p & 0xFF)) >> 8;
+                if (gray < threshold) b |= 1 << bit;
+            }
+            dst[d++] = (byte) b;
+        }
+
+        // ── Tail: last partial byte, remaining bits stay 0 ──
+        int rem = width & 7;
+        if (rem != 0) {
+            int b = 0;
+            for (int i = 0; i < rem; i++) {
+                if (isDark(src[s++], threshold)) b |= 1 << (7 - i);
+            }
+            dst[d] = (byte) b;
+        }
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // RGB_565 — one table lookup per pixel
+    // ──────────────────────────────────────────────────────────────────────────
+
+    /**
+     * Dark/light answer for every possible RGB_565 pixel (1 = print a dot),
+     * computed on the same 8-bit widening Android applies in {@code getPixels}
+     * (5/6-bit channel, top bits replicated), so results match {@link #isDark}.
+     * 64 KB; build once per threshold.
+     */
+    static byte[] darkTable565(int threshold) {
+        byte[] table = new byte[1 << 16];
+        for (int p = 0; p < table.length; p++) {
+            if (isDark(widen565((short) p), threshold)) table[p] = 1;
+        }
+        return table;
+    }
+
+    /**
+     * One RGB_565 pixel as opaque ARGB, widened the way {@code Bitmap.getPixels}
+     * does it: each 5/6-bit channel shifted up with its top bits replicated.
+     */
+    static int widen565(short pixel) {
+        int p = pixel & 0xFFFF;
+        int r = p >> 11, g = (p >> 5) & 0x3F, b = p & 0x1F;
+        return 0xFF000000 | ((r << 3 | r >> 2) << 16) | ((g << 2 | g >> 4) << 8) | (b << 3 | b >> 2);
+    }
+
+    /** {@link #widen565} for {@code width} pixels from {@code src[srcOffset]}. */
+    static void widenRow565(short[] src, int srcOffset, int width, int[] dst) {
+        for (int x = 0; x < width; x++) dst[x] = widen565(src[srcOffset + x]);
+    }
+
+    /**
+     * {@link #packRow} for raw RGB_565 pixels: thresholding is a single indexed
+     * load into a table from {@link #darkTable565}.
+     */
+    static void packRow565(short[] src, int srcOffset, int width,
+                           byte[] dst, int dstOffset, byte[] darkTable) {
+        int fullBytes = width >> 3;
+        int s = srcOffset;
+        int d = dstOffset;
+
+        for (int i = 0; i < fullBytes; i++) {
+            int b = 0;
+            for (int bit = 0; bit < 8; bit++) {
+                b = (b << 1) | darkTable[src[s++] & 0xFFFF];
+            }
+            dst[d++] = (byte) b;
+        }
+
+        int rem = width & 7;
+        if (rem != 0) {
+            int b = 0;
+            for (int i = 0; i < rem; i++) {
+                b = (b << 1) | darkTable[src[s++] & 0xFFFF];
+            }
+            dst[d] = (byte) (b << (8 - rem));
+        }
+    }
+
+    /**
+     * Writes the GS v 0 header (normal density) for a block of
+     * {@code rows} rows of {@code bytesPerRow} bytes each.
+     */
+    static void writeGsV0Header(byte[] dst, int offset, int bytesPerRow, int rows) {
+        dst[offset]     = 0x1D;                         // GS
+        dst[offset + 1] = 0x76;                         // v
+        dst[offset + 2] = 0x30;                         // 0
+        dst[offset + 3] = 0x00;                         // m = normal
+        dst[offset + 4] = (byte) (bytesPerRow & 0xFF);  // xL
+        dst[offset + 5] = (byte) (bytesPerRow >> 8);    // xH
+        dst[offset + 6] = (byte) (rows & 0xFF);         // yL
+        dst[offset + 7] = (byte) (rows >> 8);           // yH
+    }
+
+    /**
+     * Encodes a complete ARGB image ({@code width × height}, row stride = width)
+     * into a single GS v 0 command. Used where the whole image is already in
+     * memory as an int array.
+     */
+    static byte[] encode(int[] argb, int width, int height, int threshold) {
+        int bytesPerRow = bytesPerRow(width);
+        byte[] data = new byte[GS_V0_HEADER_SIZE + bytesPerRow * height];
+        writeGsV0Header(data, 0, bytesPerRow, height);
+        int k = GS_V0_HEADER_SIZE;
+        for (int y = 0; y < height; y++) {
+            packRow(argb, y * width, width, data, k, threshold);
+            k += bytesPerRow;
+        }
+        return data;
+    }
+}
@@ -0,0 +1,358 @@
+package com.turmer.fieldsales;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Turns a structured receipt (JSON from {@code AndroidPrint.printReceipt}) into
+ * native ESC/POS text-mode commands.
+ *
+ * Text goes out as characters in the printer's code page and QR codes /
+ * barcodes are drawn by the printer itself (GS ( k, GS k), so a typical sale
+ * receipt is a few KB instead of ~200 KB of raster.
+ *
+ * <pre>
+ * {
+ *   "codepage": "cp1256",              // cp437 (default), cp850, cp1252, cp866, cp1256
+ *   "codepage_number": 50,             // optional ESC t n override for odd firmware
+ *   "logo": "data:image/png;base64,…", // optional, see below
+ *   "cut": true,
+ *   "lines": [
+ *     {"type": "text", "text": "My Shop", "align": "center", "bold": true, "size": 2},
+ *     {"type": "columns", "columns": [{"text": "Tea x2", "width": 30}, {"text": "4.00", "align": "right"}]},
+ *     {"type": "total", "label": "TOTAL", "value": "12.00"},
+ *     {"type": "separator", "char": "-"},
+ *     {"type": "barcode", "data": "INV/0042", "symbology": "code128", "height": 80, "hri": "below"},
+ *     {"type": "qr", "data": "https://…", "size": 6, "ec": "M"},
+ *     {"type": "feed", "lines": 2}
+ *   ]
+ * }
+ * </pre>
+ *
+ * Text styles: {@code align} left/center/right, {@code bold}, {@code underline},
+ * {@code font} a/b, {@code size} 1–8 (or {@code width}/{@code height} separately).
+ *
+ * Arabic (cp1256) is sent as the bytes of the text in logical order, one
+ * isolated letter per character: no contextual shaping, no right-to-left
+ * reordering. It only prints correctly on printers whose firmware shapes and
+ * reorders cp1256 itself; on any other printer Arabic receipts must go
+ * through {@code printHtml}, where the WebView does both. (cp864, the DOS
+ * code page, is not offered: it only holds presentation forms, so unshaped
+ * text would come out as '?'.)
+ *
+ * The logo is printed above the text by EscPosPrinter.printRaw. On printers
+ * with NV graphics (gs_paren_l enabled) that answer status requests it is
+ * uploaded to NV memory once and then recalled with a short command; other
+ * printers get it as raster on every receipt. This only applies to
+ * {@code printReceipt}: logos in {@code printHtml} pages are part of the
+ * page raster.
+ *
+ * Code 128 data is sent in code set B with '{' escaped; data that starts with
+ * its own code set selector ({A, {B or {C) is passed through as is.
+ */
+final class ReceiptEncoder {
+
+    // Characters per line in font A (12 dots wide) and font B (9 dots wide)
+    private static final int FONT_A_DOTS = 12;
+    private static final int FONT_B_DOTS = 9;
+
+    private final int widthDots;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+    private Charset charset = Charset.forName("IBM437");
+
+    /** @param widthDots printable width in dots (384 / 576 / 832) */
+    ReceiptEncoder(int widthDots) {
+        this.widthDots = widthDots;
+    }
+
+    /**
+     * Encodes a whole receipt, from ESC @ to the cut.
+     *
+     * @throws JSONException            malformed receipt JSON
+     * @throws IllegalArgumentException unknown line type, code page or barcode data
+     */
+    static byte[] encode(String json, int widthDots) throws JSONException {
+        return new ReceiptEncoder(widthDots).encode(new JSONObject(json));
+    }
+
+    byte[] encode(JSONObject receipt) throws JSONException {
+        out.reset();
+        write(0x1B, 0x40);                                  // ESC @ — initialize
+        selectCodePage(receipt.optString("codepage", "cp437"),
+                receipt.optInt("codepage_number", -1));
+
+        JSONArray lines = receipt.optJSONArray("lines");
+        if (lines != null) {
+            for (int i = 0; i < lines.length(); i++) {
+                line(lines.getJSONObject(i));
+            }
+        }
+
+        if (receipt.optBoolean("cut", true)) {
+            write(0x0A, 0x0A, 0x0A);                        // clear the tear bar
+            write(0x1D, 0x56, 0x42, 0x00);                  // GS V B 0 — full cut
+        }
+        return out.toByteArray();
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // LINES
+    // ──────────────────────────────────────────────────────────────────────────
+
+    private void line(JSONObject l) throws JSONException {
+        String type = l.optString("type", "text");
+        switch (type) {
+            case "text":
+                style(l);
+                text(l.optString("text", ""));
+                write(0x0A);
+                resetStyle();
+                break;
+            case "columns":
+                style(l);
+                columns(l.getJSONArray("columns"), charsPerLine(l));
+                resetStyle();
+                break;
+            case "total": {
+                // Label left, value right, bold unless told otherwise
+                style(l);
+                if (!l.has("bold")) write(0x1B, 0x45, 1);
+                int cols = charsPerLine(l);
+                String label = l.optString("label", "");
+                String value = l.optString("value", "");
+                int gap = Math.max(1, cols - label.length() - value.length());
+                text(fit(label, cols - value.length() - 1) + repeat(' ', gap) + value);
+                write(0x0A);
+                resetStyle();
+                break;
+            }
+            case "separator": {
+                String c = l.optString("char", "-");
+                text(repeat(c.isEmpty() ? '-' : c.charAt(0), charsPerLine(l)));
+                write(0x0A);
+                break;
+            }
+            case "feed":
+                write(0x1B, 0x64, clamp(l.optInt("lines", 1), 0, 255));  // ESC d n
+                break;
+            case "barcode":
+                align(l.optString("align", "center"));
+                barcode(l);
+                align("left");
+                break;
+            case "qr":
+                align(l.optString("align", "center"));
+                qr(l);
+                align("left");
+                break;
+            case "cut":
+                write(0x0A, 0x0A, 0x0A);
+                write(0x1D, 0x56, 0x42, 0x00);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown receipt line type: " + type);
+        }
+    }
+
+    /**
+     * Lays out one row of columns. A column's {@code width} is in characters;
+     * columns without one share what is left. Text is truncated to fit.
+     */
+    private void columns(JSONArray cols, int lineWidth) throws JSONException {
+        int n = cols.length();
+        if (n == 0) return;
+        int[] widths = new int[n];
+        int fixed = 0;
+        int flexible = 0;
+        for (int i = 0; i < n; i++) {
+            widths[i] = Math.max(0, cols.getJSONObject(i).optInt("width", 0));
+            if (widths[i] > 0) fixed += widths[i];
+            else flexible++;
+        }
+        int rest = Math.max(0, lineWidth - fixed);
+        for (int i = 0, k = 0; i < n; i++) {
+            if (widths[i] > 0) continue;
+            // Share evenly, the last flexible column takes the remainder
+            widths[i] = ++k == flexible ? rest - (rest / flexible) * (flexible - 1) : rest / flexible;
+        }
+
+        StringBuilder sb = new StringBuilder(lineWidth);
+        for (int i = 0; i < n; i++) {
+            JSONObject c = cols.getJSONObject(i);
+            sb.append(pad(fit(c.optString("text", ""), widths[i]), widths[i],
+                    c.optString("align", i == n - 1 && n > 1 ? "right" : "left")));
+        }
+        text(sb.toString());
+        write(0x0A);
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // TEXT STYLE
+    // ──────────────────────────────────────────────────────────────────────────
+
+    private void style(JSONObject l) {
+        align(l.optString("align", "left"));
+        write(0x1B, 0x45, l.optBoolean("bold", false) ? 1 : 0);         // ESC E — emphasized
+        write(0x1B, 0x2D, l.optBoolean("underline", false) ? 1 : 0);    // ESC - — underline
+        write(0x1B, 0x4D, "b".equalsIgnoreCase(l.optString("font", "a")) ? 1 : 0); // ESC M — font
+        int w = charScale(l, "width");
+        int h = charScale(l, "height");
+        write(0x1D, 0x21, ((w - 1) << 4) | (h - 1));                    // GS ! — character size
+    }
+
+    private void resetStyle() {
+        write(0x1B, 0x45, 0);
+        write(0x1B, 0x2D, 0);
+        write(0x1B, 0x4D, 0);
+        write(0x1D, 0x21, 0);
+        align("left");
+    }
+
+    private void align(String a) {
+        int n = "center".equalsIgnoreCase(a) ? 1 : "right".equalsIgnoreCase(a) ? 2 : 0;
+        write(0x1B, 0x61, n);                                           // ESC a n
+    }
+
+    private static int charScale(JSONObject l, String key) {
+        return clamp(l.optInt(key, l.optInt("size", 1)), 1, 8);
+    }
+
+    /** Characters that fit on one line in this line's font and width multiplier. */
+    private int charsPerLine(JSONObject l) {
+        int dots = "b".equalsIgnoreCase(l.optString("font", "a")) ? FONT_B_DOTS : FONT_A_DOTS;
+        return Math.max(1, widthDots / (dots * charScale(l, "width")));
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // CODE PAGES — ESC t n + the matching Java charset
+    // ──────────────────────────────────────────────────────────────────────────
+
+    private void selectCodePage(String name, int override) {
+        String charsetName;
+        int n;
+        switch (name.toLowerCase()) {
+            case "cp437":  charsetName = "IBM437";       n = 0;  break;
+            case "cp850":  charsetName = "IBM850";       n = 2;  break;
+            case "cp1252": charsetName = "windows-1252"; n = 16; break;
+            case "cp866":  charsetName = "IBM866";       n = 17; break;
+            case "cp1256": charsetName = "windows-1256"; n = 50; break;  // Arabic, unshaped (see above)
+            default:
+                throw new IllegalArgumentException("Unknown code page: " + name);
+        }
+        if (!Charset.isSupported(charsetName)) {
+            throw new IllegalArgumentException("Code page not available on this device: " + name);
+        }
+        charset = Charset.forName(charsetName);
+        write(0x1B, 0x74, override >= 0 ? clamp(override, 0, 255) : n);
+    }
+
+    private void text(String s) {
+        byte[] b = s.getBytes(charset);
+        out.write(b, 0, b.length);
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // BARCODE — GS k m n d1…dn (function B)
+    // ──────────────────────────────────────────────────────────────────────────
+
+    private void barcode(JSONObject l) {
+        String data = l.optString("data", "");
+        String symbology = l.optString("symbology", "code128").toLowerCase();
+        int m;
+        switch (symbology) {
+            case "upca":    m = 65; break;
+            case "upce":    m = 66; break;
+            case "ean13":   m = 67; break;
+            case "ean8":    m = 68; break;
+            case "code39":  m = 69; break;
+            case "itf":     m = 70; break;
+            case "codabar": m = 71; break;
+            case "code93":  m = 72; break;
+            case "code128":
+                m = 73;
+                // Code set B unless given; '{' starts a function code, so literal ones are doubled
+                if (!data.matches("\\{[ABC].*")) data = "{B" + data.replace("{", "{{");
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown barcode symbology: " + symbology);
+        }
+        byte[] bytes = data.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length == 0 || bytes.length > 255) {
+            throw new IllegalArgumentException("Barcode data must be 1–255 characters");
+        }
+
+        String hri = l.optString("hri", "below");
+        int hriPos = "none".equals(hri) ? 0 : "above".equals(hri) ? 1 : "both".equals(hri) ? 3 : 2;
+        write(0x1D, 0x48, hriPos);                                      // GS H — HRI position
+        write(0x1D, 0x68, clamp(l.optInt("height", 80), 1, 255));       // GS h — height in dots
+        write(0x1D, 0x77, clamp(l.optInt("module", 2), 2, 6));          // GS w — module width
+        write(0x1D, 0x6B, m, bytes.length);
+        out.write(bytes, 0, bytes.length);
+        write(0x0A);
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // QR CODE — GS ( k, cn = 49 (model 2)
+    // ──────────────────────────────────────────────────────────────────────────
+
+    private void qr(JSONObject l) {
+        byte[] data = l.optString("data", "").getBytes(StandardCharsets.UTF_8);
+        if (data.length == 0 || data.length > 7089) {
+            throw new IllegalArgumentException("QR data must be 1–7089 bytes");
+        }
+        int ec;
+        switch (l.optString("ec", "M").toUpperCase()) {
+            case "L": ec = 48; break;
+            case "Q": ec = 50; break;
+            case "H": ec = 51; break;
+            default:  ec = 49; break;
+        }
+        write(0x1D, 0x28, 0x6B, 4, 0, 0x31, 0x41, 0x32, 0x00);          // fn 65 — model 2
+        write(0x1D, 0x28, 0x6B, 3, 0, 0x31, 0x43,
+                clamp(l.optInt("size", 6), 1, 16));                     // fn 67 — module size
+        write(0x1D, 0x28, 0x6B, 3, 0, 0x31, 0x45, ec);                  // fn 69 — error correction
+        int len = data.length + 3;
+        write(0x1D, 0x28, 0x6B, len & 0xFF, len >> 8, 0x31, 0x50, 0x30); // fn 80 — store data
+        out.write(data, 0, data.length);
+        write(0x1D, 0x28, 0x6B, 3, 0, 0x31, 0x51, 0x30);                // fn 81 — print
+        write(0x0A);
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // HELPERS
+    // ──────────────────────────────────────────────────────────────────────────
+
+    private void write(int... bytes) {
+        for (int b : bytes) out.write(b);
+    }
+
+    private static int clamp(int v, int min, int max) {
+        return Math.max(min, Math.min(max, v));
+    }
+
+    private static String fit(String s, int width) {
+        if (width <= 0) return "";
+        return s.length() <= width ? s : s.substring(0, width);
+    }
+
+    private static String pad(String s, int width, String align) {
+        int space = width - s.length();
+        if (space <= 0) return s;
+        if ("right".equalsIgnoreCase(align)) return repeat(' ', space) + s;
+        if ("center".equalsIgnoreCase(align)) {
+            return repeat(' ', space / 2) + s + repeat(' ', space - space / 2);
+        }
+        return s + repeat(' ', space);
+    }
+
+    private static String repeat(char c, int n) {
+        StringBuilder sb = new StringBuilder(Math.max(0, n));
+        for (int i = 0; i < n; i++) sb.append(c);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,179 @@
+package com.turmer.fieldsales;
+
+import android.util.Log;
+import android.webkit.JavascriptInterface;
+import android.webkit.WebView;
+
+/**
+ * Tells when an offscreen receipt WebView is ready to be captured.
+ *
+ * Replaces the fixed 4 s wait after onPageFinished. A small script carried
+ * in the receipt page itself reports the window load event, then waits until
+ * every image is loaded and decoded (Odoo's QR / barcode images included),
+ * web fonts are ready ({@code document.fonts.ready}) and the document height
+ * has stopped changing, and calls back through the {@value #BRIDGE} bridge.
+ * A timeout still fires the capture if the page never settles (broken image
+ * URL, script that keeps mutating the DOM): {@link #LOAD_TIMEOUT_MS} plus
+ * the configured wait from {@link #attach}, cut to the configured wait
+ * alone once the load event arrives. So a stalled image or font request
+ * that holds back the load event still ends in a print.
+ *
+ * Everything starts from the bridge, not from onPageFinished: a pooled view
+ * may still have the about:blank it was reset with finishing, and that page
+ * has no script to call back.
+ *
+ * Usage: {@link #attach} and {@link #inject} before loading the page. The
+ * callback runs exactly once, on the UI thread, with the measured content
+ * height.
+ */
+final class RenderReadiness {
+
+    private static final String TAG = "RenderReadiness";
+
+    /** JS bridge name, only installed on the offscreen print WebView. */
+    static final String BRIDGE = "AndroidRender";
+
+    /** Upper bound on the wait after the load event when nothing is configured. */
+    static final long DEFAULT_TIMEOUT_MS = 4000;
+
+    /** Extra time allowed for the load event itself (slow images on cellular). */
+    static final long LOAD_TIMEOUT_MS = 10_000;
+
+    // Layout counts as stable when the height is unchanged over this many polls
+    private static final int STABLE_POLLS = 2;
+    private static final int POLL_MS = 50;
+
+    /**
+     * Receives the height of the page content in CSS pixels and when the page
+     * finished loading ({@link System#nanoTime}, 0 if it was never reported).
+     */
+    interface Callback {
+        void onReady(int contentHeightCss, long loadedAtNs);
+    }
+
+    // Content height, not documentElement.scrollHeight — that never drops below
+    // the (tall) offscreen viewport
+    private static final String MEASURE =
+            "(document.body ? document.body.scrollHeight : document.documentElement.scrollHeight)";
+
+    // setTimeout rather than requestAnimationFrame: the print WebView sits
+    // off-screen, where Chromium may stop producing animation frames.
+    private static final String SCRIPT =
+            "(function(){" +
+            "function settle(){" +
+            "  function decoded(img){" +
+            "    return img.decode ? img.decode().catch(function(){}) : null;" +
+            "  }" +
+            "  function loaded(img){" +
+            "    img.loading = 'eager';" +
+            "    if (img.complete) return decoded(img);" +
+            "    return new Promise(function(r){" +
+            "      img.addEventListener('load', r, {once: true});" +
+            "      img.addEventListener('error', r, {once: true});" +
+            "    }).then(function(){ return decoded(img); });" +
+            "  }" +
+            "  var images = Promise.all(Array.prototype.map.call(document.images, loaded));" +
+            "  var fonts = document.fonts ? document.fonts.ready : null;" +
+            "  Promise.all([images, fonts]).then(function(){" +
+            "    var last = -1, stable = 0;" +
+            "    (function poll(){" +
+            "      var h = " + MEASURE + ";" +
+            "      if (h === last) { if (++stable >= " + STABLE_POLLS + ") {" +
+            "        " + BRIDGE + ".onReady(String(h)); return; } }" +
+            "      else { last = h; stable = 0; }" +
+            "      setTimeout(poll, " + POLL_MS + ");" +
+            "    })();" +
+            "  });" +
+            "}" +
+            "function start(){ " + BRIDGE + ".onLoaded(); settle(); }" +
+            "if (document.readyState === 'complete') start();" +
+            "else window.addEventListener('load', start, {once: true});" +
+            "})();";
+
+    private final WebView view;
+    private final long timeoutMs;
+    private final Callback onReady;
+    private final Runnable timeout = this::measureAndFire;
+    private long startedAt;
+    private long loadedAtNs;
+    private boolean fired;
+
+    private RenderReadiness(WebView view, long timeoutMs, Callback onReady) {
+        this.view = view;
+        this.timeoutMs = timeoutMs > 0 ? timeoutMs : DEFAULT_TIMEOUT_MS;
+        this.onReady = onReady;
+    }
+
+    /**
+     * Installs the readiness bridge on {@code view}. Must be called before the
+     * page is loaded — JS interfaces only appear on the next page load.
+     */
+    static RenderReadiness attach(WebView view, long timeoutMs, Callback onReady) {
+        RenderReadiness r = new RenderReadiness(view, timeoutMs, onReady);
+        view.addJavascriptInterface(r.new Bridge(), BRIDGE);
+        r.startedAt = System.currentTimeMillis();
+        view.postDelayed(r.timeout, LOAD_TIMEOUT_MS + r.timeoutMs);
+        return r;
+    }
+
+    /** {@code html} with the readiness script added at the end of its body. */
+    static String inject(String html) {
+        String tag = "<script>" + SCRIPT + "</script>";
+        int end = html.lastIndexOf("</body>");
+        return end >= 0 ? html.substring(0, end) + tag + html.substring(end) : html + tag;
+    }
+
+    /** The page reached its load event: only the settle wait is left. UI thread. */
+    private void loaded() {
+        if (fired || loadedAtNs != 0) return;
+        loadedAtNs = System.nanoTime();
+        view.removeCallbacks(timeout);
+        view.postDelayed(timeout, timeoutMs);
+    }
+
+    /** Timed out: capture what is there, measuring the height directly. */
+    private void measureAndFire() {
+        if (fired) return;
+        view.evaluateJavascript(MEASURE, value -> {
+            int height;
+            try {
+                height = Integer.parseInt(value.trim());
+            } catch (Exception e) {
+                height = view.getContentHeight();
+            }
+            fire(height, "timeout");
+        });
+    }
+
+    private void fire(int height, String reason) {
+        if (fired) return;
+        fired = true;
+        view.removeCallbacks(timeout);
+        Log.d(TAG, "Ready after " + (System.currentTimeMillis() - startedAt) + " ms ("
+                + reason + "), content height " + height);
+        onReady.onReady(height, loadedAtNs);
+    }
+
+    private final class Bridge {
+        @JavascriptInterface
+        public void onLoaded() {
+            view.post(RenderReadiness.this::loaded);
+        }
+
+        @JavascriptInterface
+        public void onReady(String height) {
+            // Called on the JS bridge thread — hop to the UI thread for the capture
+            int h;
+            try {
+                h = Integer.parseInt(height);
+            } catch (NumberFormatException e) {
+                h = 0;
+            }
+            int contentHeight = h;
+            view.post(() -> {
+                if (contentHeight > 0) fire(contentHeight, "settled");
+                else measureAndFire();
+            });
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.turmer.fieldsales;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
+import android.webkit.WebView;
+
+import java.nio.ShortBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A rendered receipt page served to the encoder one fixed-height tile at a time.
+ *
+ * Replaces the single 10000 px capture bitmap (~11 MB at 80 mm, silently
+ * truncating longer documents): the content height is measured from the page
+ * and only a handful of {@link #TILE_HEIGHT}-row RGB_565 tiles exist at any
+ * moment, so peak memory is the same for a 10 cm receipt and a 3 m
+ * settlement report.
+ *
+ * This is the render stage of the print pipeline. The only work on the UI
+ * thread (the only thread allowed to touch the view) is one {@code
+ * view.draw} per tile, straight into the tile's bitmap at the head's
+ * density, one tile per message so the UI stays responsive. Tiles are drawn
+ * up to {@link #PREFETCH} ahead of the encoder, which reads rows and does
+ * the thresholding and encoding on its own thread and only waits when it
+ * catches up. Rows are normally read top to bottom; reading an earlier row
+ * again (command-set comparison, a resend after a stale session) restarts
+ * drawing from there.
+ *
+ * The page is never recorded or captured whole: a software draw of a
+ * Chromium WebView into a {@code Picture} would store a bitmap of the full
+ * page at view resolution. The WebView must stay alive until {@link #close}.
+ */
+final class WebViewTiles implements BandEncoder.Rgb565RowSource {
+
+    /** Rows per tile, in printer dots (576 × 256 × 2 bytes ≈ 290 KB at 80 mm). */
+    static final int TILE_HEIGHT = 256;
+
+    /** Tiles rendered ahead of the one being encoded. */
+    static final int PREFETCH = 2;
+
+    // Longest the encoder waits for the UI thread to draw one tile
+    private static final long TILE_TIMEOUT_MS = 10_000;
+
+    private static final class Tile {
+        final short[] pixels;
+        int top;
+        int generation;
+
+        Tile(int size) {
+            pixels = new short[size];
+        }
+    }
+
+    private final WebView view;
+    private final Handler ui = new Handler(Looper.getMainLooper());
+    private final int width;
+    private final int height;
+    private final float scale;
+
+    // Tile buffers cycle free → (UI draws) → ready → (encoder reads) → free
+    private final BlockingQueue<Tile> free = new ArrayBlockingQueue<>(PREFETCH + 1);
+    private final BlockingQueue<Tile> ready = new ArrayBlockingQueue<>(PREFETCH + 1);
+    // Bumped on every restart (UI thread: prefetch / close; encoder thread: seeks)
+    // and read by the UI side; tiles of an older generation are thrown away
+    private final AtomicInteger generation = new AtomicInteger();
+
+    // Encoder side
+    private Tile current;
+    private int expectedTop = -1;
+
+    // UI side
+    private Bitmap bitmap;
+    private int stride;
+    private int nextTop;
+    private int producing;
+    private boolean closed;
+    private PrintStats.Job trace;
+
+    /**
+     * @param view          laid-out page, {@code viewWidth} px wide
+     * @param contentHeight document height in view pixels
+     * @param printWidth    width to render at, in printer dots
+     */
+    WebViewTiles(WebView view, int viewWidth, int contentHeight, int printWidth) {
+        this.view = view;
+        this.width = printWidth;
+        this.scale = (float) printWidth / viewWidth;
+        this.height = Math.max(1, Math.round(contentHeight * scale));
+    }
+
+    /** Job whose render stage collects the tile drawing time. UI thread. */
+    void trace(PrintStats.Job job) {
+        trace = job;
+    }
+
+    /** Starts rendering the first tiles right away, before the job reaches the printer. */
+    void prefetch() {
+        restart(0);
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public int height() {
+        return height;
+    }
+
+    @Override
+    public void readRow565(int y, short[] dst) {
+        Tile t = tileFor(y);
+        System.arraycopy(t.pixels, (y - t.top) * stride, dst, 0, width);
+    }
+
+    @Override
+    public void readRow(int y, int[] dst) {
+        Tile t = tileFor(y);
+        RasterEncoder.widenRow565(t.pixels, (y - t.top) * stride, width, dst);
+    }
+
+    /** Stops drawing and frees the tiles. UI thread; call once the print job is over. */
+    void close() {
+        closed = true;
+        generation.incrementAndGet();
+        if (bitmap != null) bitmap.recycle();
+        bitmap = null;
+        free.clear();
+        ready.clear();
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // ENCODER SIDE
+    // ──────────────────────────────────────────────────────────────────────────
+
+    private Tile tileFor(int y) {
+        if (current != null && y >= current.top && y < current.top + TILE_HEIGHT) return current;
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            throw new IllegalStateException("Tiles are read off the UI thread");
+        }
+        int top = y - y % TILE_HEIGHT;
+        if (current != null) {
+            free.offer(current);
+            current = null;
+        }
+        if (top == expectedTop) {
+            ui.post(this::produce); // a buffer came free — keep rendering ahead
+        } else {
+            restart(top);
+        }
+
+        try {
+            long deadline = System.nanoTime() + TILE_TIMEOUT_MS * 1_000_000L;
+            while (true) {
+                Tile t = ready.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (t == null) throw new IllegalStateException("Timed out rendering receipt row " + top);
+                if (t.generation == generation.get() && t.top == top) {
+                    current = t;
+                    expectedTop = top + TILE_HEIGHT;
+                    return t;
+                }
+                free.offer(t); // left over from before a restart
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while rendering receipt", e);
+        }
+    }
+
+    private void restart(int top) {
+        int gen = generation.incrementAndGet();
+        Tile stale;
+        while ((stale = ready.poll()) != null) free.offer(stale);
+        expectedTop = top;
+        ui.post(() -> {
+            if (gen != generation.get()) return;
+            producing = gen;
+            nextTop = top;
+            produce();
+        });
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // UI SIDE — draw one tile per message so the UI thread stays responsive
+    // ──────────────────────────────────────────────────────────────────────────
+
+    private void produce() {
+        if (closed || producing != generation.get() || nextTop >= height) return;
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, TILE_HEIGHT, Bitmap.Config.RGB_565);
+            stride = bitmap.getRowBytes() / 2;
+            for (int i = 0; i < PREFETCH + 1; i++) free.offer(new Tile(stride * TILE_HEIGHT));
+        }
+        Tile t = free.poll();
+        if (t == null) return; // encoder is behind; it re-posts when it frees a tile
+
+        long startNs = System.nanoTime();
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawColor(Color.WHITE);
+        canvas.translate(0, -nextTop);
+        canvas.scale(scale, scale);
+        view.draw(canvas);
+        bitmap.copyPixelsToBuffer(ShortBuffer.wrap(t.pixels));
+        t.top = nextTop;
+        t.generation = producing;
+        ready.offer(t);
+        if (trace != null) trace.add(PrintStats.RENDER, System.nanoTime() - startNs);
+
+        nextTop += TILE_HEIGHT;
+        ui.post(this::produce);
+    }
+}
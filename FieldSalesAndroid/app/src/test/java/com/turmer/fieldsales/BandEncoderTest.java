@@ -0,0 +1,208 @@
+package com.turmer.fieldsales;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * BandEncoder against the old banded path, which cropped each band out of
+ * the bitmap and sent it as one GS v 0 image ({@link RasterEncoderTest#legacyEncode}).
+ */
+public class BandEncoderTest {
+
+    private static final int BAND = 100;
+
+    @Test
+    public void bandsWithoutLongGapsAreByteIdenticalToCropThenEncode() {
+        Random rnd = new Random(4);
+        for (int width : new int[]{9, 384, 576}) {
+            Image img = new Image(width, 345);
+            img.noise(rnd, 0, 345); // no white row anywhere
+            BandEncoder enc = new BandEncoder();
+            enc.reset();
+            for (int y = 0; y < img.height; y += BAND) {
+                int rows = Math.min(BAND, img.height - y);
+                byte[] expected = RasterEncoderTest.legacyEncode(img.crop(y, rows), width, rows, 128);
+                int n = enc.encode(img, y, rows);
+                assertArrayEquals("width " + width + ", band at " + y,
+                        expected, Arrays.copyOf(enc.buffer(), n));
+            }
+            assertEquals(0, enc.finish());
+        }
+    }
+
+    @Test
+    public void blankRunsPrintTheSameRowsAsCropThenEncode() {
+        Random rnd = new Random(5);
+        Image img = new Image(384, 1000);
+        img.noise(rnd, 0, 40);
+        img.noise(rnd, 45, 90);      // 5-row gap: stays raster
+        img.noise(rnd, 130, 195);    // 40-row gap inside band 0/1 boundary region
+        img.noise(rnd, 300, 305);    // 95-row gap
+        img.noise(rnd, 600, 601);    // long gap crossing bands, then a single row
+        // rows 601..1000 white: trailing run fed out by finish()
+
+        byte[] legacy = RasterEncoderTest.legacyEncode(img.pixels, img.width, img.height, 128);
+        byte[] expectedRows = Arrays.copyOfRange(legacy, RasterEncoder.GS_V0_HEADER_SIZE, legacy.length);
+
+        byte[] stream = encodeAll(new BandEncoder(), img);
+        assertArrayEquals(expectedRows, Printer.print(stream, RasterEncoder.bytesPerRow(img.width)));
+        assertTrue("white rows should have been skipped", stream.length < legacy.length / 2);
+    }
+
+    @Test
+    public void blankRunAcrossBandBoundaryBecomesOneFeed() {
+        Random rnd = new Random(6);
+        Image img = new Image(64, 200);
+        img.noise(rnd, 0, 95);
+        img.noise(rnd, 111, 200);    // rows 95..110 white: 5 in band 0, 11 in band 1
+
+        byte[] stream = encodeAll(new BandEncoder(), img);
+        Printer p = new Printer(RasterEncoder.bytesPerRow(img.width));
+        p.run(stream);
+        assertEquals(Arrays.asList(16), p.feeds);
+    }
+
+    @Test
+    public void shortGapAcrossBandBoundaryStaysRaster() {
+        Random rnd = new Random(7);
+        Image img = new Image(64, 200);
+        img.noise(rnd, 0, 97);
+        img.noise(rnd, 103, 200);    // 6 white rows, 3 on each side of the boundary
+
+        byte[] stream = encodeAll(new BandEncoder(), img);
+        Printer p = new Printer(RasterEncoder.bytesPerRow(img.width));
+        p.run(stream);
+        assertTrue(p.feeds.isEmpty());
+        byte[] legacy = RasterEncoderTest.legacyEncode(img.pixels, img.width, img.height, 128);
+        assertArrayEquals(Arrays.copyOfRange(legacy, RasterEncoder.GS_V0_HEADER_SIZE, legacy.length),
+                p.rows.toByteArray());
+    }
+
+    @Test
+    public void runOfExactlyMinBlankRunIsFed() {
+        Random rnd = new Random(8);
+        Image img = new Image(32, 50);
+        img.noise(rnd, 0, 10);
+        img.noise(rnd, 10 + BandEncoder.MIN_BLANK_RUN, 50);
+
+        Printer p = new Printer(RasterEncoder.bytesPerRow(img.width));
+        p.run(encodeAll(new BandEncoder(), img));
+        assertEquals(Arrays.asList(BandEncoder.MIN_BLANK_RUN), p.feeds);
+    }
+
+    @Test
+    public void resetForgetsCarriedRowsBetweenJobs() {
+        Image img = new Image(32, 20);  // all white
+        BandEncoder enc = new BandEncoder();
+        enc.reset();
+        enc.encode(img, 0, 20);
+        enc.reset();
+        assertEquals(0, enc.finish());
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // HELPERS
+    // ──────────────────────────────────────────────────────────────────────────
+
+    private static byte[] encodeAll(BandEncoder enc, Image img) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        enc.reset();
+        for (int y = 0; y < img.height; y += BAND) {
+            int n = enc.encode(img, y, Math.min(BAND, img.height - y));
+            out.write(enc.buffer(), 0, n);
+        }
+        int n = enc.finish();
+        out.write(enc.buffer(), 0, n);
+        return out.toByteArray();
+    }
+
+    /** White ARGB image with dark noise in chosen row ranges. */
+    static final class Image implements BandEncoder.RowSource {
+        final int width;
+        final int height;
+        final int[] pixels;
+
+        Image(int width, int height) {
+            this.width = width;
+            this.height = height;
+            pixels = new int[width * height];
+            Arrays.fill(pixels, 0xFFFFFFFF);
+        }
+
+        /** Rows [from, to) get random pixels, each with at least one dark dot. */
+        void noise(Random rnd, int from, int to) {
+            for (int y = from; y < to; y++) {
+                for (int x = 0; x < width; x++) {
+                    pixels[y * width + x] = rnd.nextBoolean() ? 0xFF000000 : 0xFFFFFFFF;
+                }
+                pixels[y * width + rnd.nextInt(width)] = 0xFF000000;
+            }
+        }
+
+        int[] crop(int y, int rows) {
+            return Arrays.copyOfRange(pixels, y * width, (y + rows) * width);
+        }
+
+        @Override public int width() { return width; }
+        @Override public int height() { return height; }
+
+        @Override
+        public void readRow(int y, int[] dst) {
+            System.arraycopy(pixels, y * width, dst, 0, width);
+        }
+    }
+
+    /** Replays GS v 0 blocks and ESC J feeds into the rows a printer would print. */
+    static final class Printer {
+        final int bytesPerRow;
+        final ByteArrayOutputStream rows = new ByteArrayOutputStream();
+        /** Paper feeds, consecutive ESC J commands merged. */
+        final List<Integer> feeds = new ArrayList<>();
+
+        Printer(int bytesPerRow) {
+            this.bytesPerRow = bytesPerRow;
+        }
+
+        static byte[] print(byte[] stream, int bytesPerRow) {
+            Printer p = new Printer(bytesPerRow);
+            p.run(stream);
+            return p.rows.toByteArray();
+        }
+
+        void run(byte[] s) {
+            int i = 0;
+            boolean lastWasFeed = false;
+            while (i < s.length) {
+                if (s[i] == 0x1D && s[i + 1] == 0x76 && s[i + 2] == 0x30) {
+                    int xBytes = (s[i + 4] & 0xFF) | (s[i + 5] & 0xFF) << 8;
+                    int yRows = (s[i + 6] & 0xFF) | (s[i + 7] & 0xFF) << 8;
+                    assertEquals(bytesPerRow, xBytes);
+                    rows.write(s, i + 8, xBytes * yRows);
+                    i += 8 + xBytes * yRows;
+                    lastWasFeed = false;
+                } else if (s[i] == 0x1B && s[i + 1] == 0x4A) {
+                    int n = s[i + 2] & 0xFF;
+                    if (lastWasFeed) {
+                        feeds.set(feeds.size() - 1, feeds.get(feeds.size() - 1) + n);
+                    } else {
+                        feeds.add(n);
+                    }
+                    rows.write(new byte[n * bytesPerRow], 0, n * bytesPerRow);
+                    i += 3;
+                    lastWasFeed = true;
+                } else {
+                    throw new AssertionError("Unexpected byte 0x" + Integer.toHexString(s[i] & 0xFF) + " at " + i);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.turmer.fieldsales;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * BandPipeline against encoding the same bands one after another on the
+ * calling thread, and its clean-up when either side of the queue fails.
+ */
+public class BandPipelineTest {
+
+    private static final int BAND = 64;
+
+    /** Receipt-like image: printed blocks with white gaps long enough to become feeds. */
+    private static BandEncoderTest.Image receipt(int width, int height, long seed) {
+        Random rnd = new Random(seed);
+        BandEncoderTest.Image img = new BandEncoderTest.Image(width, height);
+        for (int y = 0; y < height; y += 50) img.noise(rnd, y, Math.min(height, y + 30));
+        return img;
+    }
+
+    private static byte[] sequential(BandEncoder.RowSource src) {
+        BandEncoder enc = new BandEncoder();
+        enc.reset();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int y = 0; y < src.height(); y += BAND) {
+            int n = enc.encode(src, y, Math.min(BAND, src.height() - y));
+            out.write(enc.buffer(), 0, n);
+        }
+        int n = enc.finish();
+        out.write(enc.buffer(), 0, n);
+        return out.toByteArray();
+    }
+
+    private static byte[] pipelined(BandPipeline pipeline, BandEncoder enc, BandEncoder.RowSource src)
+            throws IOException {
+        enc.reset();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pipeline.run(src, BAND, (data, length) -> out.write(data, 0, length), null);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void outputIsByteIdenticalToSequentialEncoding() throws IOException {
+        BandEncoder enc = new BandEncoder();
+        BandPipeline pipeline = new BandPipeline(enc);
+        for (int height : new int[]{1, BAND - 1, BAND, BAND + 1, 1000}) {
+            BandEncoderTest.Image img = receipt(384, height, height);
+            assertArrayEquals("height " + height, sequential(img), pipelined(pipeline, enc, img));
+        }
+    }
+
+    @Test
+    public void sinkFailureIsRethrownAndPipelineStaysUsable() throws IOException {
+        BandEncoder enc = new BandEncoder();
+        BandPipeline pipeline = new BandPipeline(enc);
+        BandEncoderTest.Image img = receipt(384, 2000, 7);
+        IOException broken = new IOException("link lost");
+        int[] writes = {0};
+
+        enc.reset();
+        try {
+            pipeline.run(img, BAND, (data, length) -> {
+                if (++writes[0] == 3) throw broken;
+            }, null);
+            fail("sink failure swallowed");
+        } catch (IOException e) {
+            assertSame(broken, e);
+        }
+        assertEquals(3, writes[0]);
+
+        // Every band buffer went back to the pool and the encoder thread let go
+        for (int i = 0; i < 3; i++) assertArrayEquals(sequential(img), pipelined(pipeline, enc, img));
+    }
+
+    @Test
+    public void encoderFailureIsWrappedAfterEarlierBands() throws IOException {
+        BandEncoder enc = new BandEncoder();
+        BandPipeline pipeline = new BandPipeline(enc);
+        BandEncoderTest.Image img = receipt(384, 1000, 3);
+        IllegalStateException broken = new IllegalStateException("tile timed out");
+        BandEncoder.RowSource failing = new BandEncoder.RowSource() {
+            @Override public int width() { return img.width(); }
+            @Override public int height() { return img.height(); }
+
+            @Override
+            public void readRow(int y, int[] dst) {
+                if (y == 5 * BAND) throw broken;
+                img.readRow(y, dst);
+            }
+        };
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        enc.reset();
+        try {
+            pipeline.run(failing, BAND, (data, length) -> out.write(data, 0, length), null);
+            fail("encoder failure swallowed");
+        } catch (IOException e) {
+            assertSame(broken, e.getCause());
+        }
+        // What was sent is a prefix of the full job: the bands before the failure
+        byte[] full = sequential(img);
+        byte[] sent = out.toByteArray();
+        assertTrue(sent.length > 0 && sent.length < full.length);
+        for (int i = 0; i < sent.length; i++) assertEquals("byte " + i, full[i], sent[i]);
+
+        assertArrayEquals(full, pipelined(pipeline, enc, img));
+    }
+
+    @Test
+    public void closeStopsTheEncoderThread() throws Exception {
+        BandEncoder enc = new BandEncoder();
+        BandPipeline pipeline = new BandPipeline(enc);
+        BandEncoderTest.Image img = receipt(384, 100, 5);
+        Thread[] encoder = new Thread[1];
+        BandEncoder.RowSource watched = new BandEncoder.RowSource() {
+            @Override public int width() { return img.width(); }
+            @Override public int height() { return img.height(); }
+
+            @Override
+            public void readRow(int y, int[] dst) {
+                encoder[0] = Thread.currentThread();
+                img.readRow(y, dst);
+            }
+        };
+        enc.reset();
+        pipeline.run(watched, BAND, (data, length) -> {}, null);
+        assertNotNull(encoder[0]);
+
+        pipeline.close();
+        encoder[0].join(2000);
+        assertFalse("print-encoder thread still running", encoder[0].isAlive());
+    }
+}
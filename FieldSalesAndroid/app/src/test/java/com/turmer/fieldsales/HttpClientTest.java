@@ -0,0 +1,119 @@
+package com.turmer.fieldsales;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Connection reuse of {@link HttpClient} against a local HTTP/1.1 server that
+ * counts the TCP connections it accepts.
+ */
+public class HttpClientTest {
+
+    private ServerSocket server;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile int status = 200;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new ServerSocket(0, 8, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Socket s = server.accept();
+                    connections.incrementAndGet();
+                    Thread t = new Thread(() -> serve(s));
+                    t.setDaemon(true);
+                    t.start();
+                } catch (IOException e) {
+                    return; // closed
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        server.close();
+    }
+
+    /** Answers requests on one connection until the client closes it. */
+    private void serve(Socket s) {
+        try (Socket socket = s) {
+            InputStream in = socket.getInputStream();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.ISO_8859_1));
+            OutputStream out = socket.getOutputStream();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                int length = 0;
+                while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                    if (line.toLowerCase().startsWith("content-length:")) {
+                        length = Integer.parseInt(line.substring(15).trim());
+                    }
+                }
+                for (int i = 0; i < length; i++) reader.read();
+                requests.incrementAndGet();
+
+                byte[] body = ("{\"jsonrpc\": \"2.0\", \"id\": 1, \"result\": " + requests.get() + "}")
+                        .getBytes(StandardCharsets.UTF_8);
+                String head = "HTTP/1.1 " + status + (status == 200 ? " OK" : " Internal Server Error") + "\r\n"
+                        + "Content-Type: application/json\r\n"
+                        + "Set-Cookie: session_id=abc; Path=/\r\n"
+                        + "Content-Length: " + body.length + "\r\n\r\n";
+                out.write(head.getBytes(StandardCharsets.ISO_8859_1));
+                out.write(body);
+                out.flush();
+            }
+        } catch (IOException ignored) {
+            // client went away
+        }
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getLocalPort() + path;
+    }
+
+    @Test
+    public void consecutiveCallsShareOneConnection() throws Exception {
+        HttpClient.JsonResponse first = HttpClient.postJson(url("/web/database/list"), new JSONObject(), 5000);
+        HttpClient.JsonResponse second = HttpClient.postJson(url("/web/session/authenticate"),
+                new JSONObject(), 5000, "session_id=abc");
+
+        assertEquals(200, first.code);
+        assertEquals(200, second.code);
+        assertEquals(1, first.cookies.size());
+        assertEquals(2, requests.get());
+        assertEquals(1, connections.get());
+    }
+
+    @Test
+    public void errorBodiesAreReadSoTheConnectionIsReused() throws Exception {
+        status = 500; // Odoo reports RPC errors with a JSON body
+        HttpClient.JsonResponse error = HttpClient.postJson(url("/web/dataset/call_kw"), new JSONObject(), 5000);
+        status = 200;
+        HttpClient.JsonResponse ok = HttpClient.postJson(url("/web/dataset/call_kw"), new JSONObject(), 5000);
+
+        assertEquals(500, error.code);
+        assertEquals(200, ok.code);
+        assertEquals(2, requests.get());
+        assertEquals(1, connections.get());
+    }
+}
@@ -0,0 +1,68 @@
+package com.turmer.fieldsales;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * PacingController.learn: rates only go up after a run of clean jobs and
+ * never past the printer's ceiling, but come down on the first bad one.
+ */
+public class PacingControllerTest {
+
+    private static final long MS = 1_000_000L;
+    private static final long BYTES = 64 * 1024;
+
+    /** Simulates jobs that always drain in time, as a printer silently dropping data would. */
+    private static int runCleanJobs(int rate, int ceiling, int jobs) {
+        int clean = 0;
+        for (int i = 0; i < jobs; i++) {
+            long sendNs = BYTES * 1000 * MS / rate;
+            clean++;
+            int next = PacingController.learn(rate, ceiling, clean, BYTES, sendNs, sendNs);
+            if (next > rate) clean = 0;
+            rate = next;
+        }
+        return rate;
+    }
+
+    @Test
+    public void cleanJobsNeverRaiseRatePastCeiling() {
+        assertEquals(40 * 1024, runCleanJobs(20 * 1024, 40 * 1024, 200));
+    }
+
+    @Test
+    public void rateHoldsUntilEnoughCleanJobs() {
+        int rate = 20 * 1024;
+        long sendNs = BYTES * 1000 * MS / rate;
+        for (int clean = 1; clean < PacingController.CLEAN_JOBS_BEFORE_RAISE; clean++) {
+            assertEquals(rate, PacingController.learn(rate, 1 << 20, clean, BYTES, sendNs, sendNs));
+        }
+        assertTrue(PacingController.learn(rate, 1 << 20,
+                PacingController.CLEAN_JOBS_BEFORE_RAISE, BYTES, sendNs, sendNs) > rate);
+    }
+
+    @Test
+    public void rateAboveCeilingIsClampedDown() {
+        int rate = 100 * 1024;
+        long sendNs = BYTES * 1000 * MS / rate;
+        assertEquals(20 * 1024, PacingController.learn(rate, 20 * 1024, 1, BYTES, sendNs, sendNs));
+    }
+
+    @Test
+    public void timeoutBacksOffRegardlessOfStreak() {
+        assertEquals(15 * 1024, PacingController.learn(20 * 1024, 1 << 20, 99, BYTES, 1000 * MS, -1));
+    }
+
+    @Test
+    public void slowDrainDropsToObservedRate() {
+        int next = PacingController.learn(40 * 1024, 1 << 20, 0, BYTES, 1600 * MS, 4000 * MS);
+        assertEquals((int) (BYTES * 1000 / 4000 * 95 / 100), next, 64);
+    }
+
+    @Test
+    public void shortJobsAreIgnored() {
+        assertEquals(20 * 1024, PacingController.learn(20 * 1024, 1 << 20, 99, 1024, MS, -1));
+    }
+}
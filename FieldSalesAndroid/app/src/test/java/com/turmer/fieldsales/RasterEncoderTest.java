@@ -0,0 +1,162 @@
+package com.turmer.fieldsales;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * RasterEncoder against the original per-pixel encoder
+ * ({@code EscPosPrinter.encodeBitmapToRaster} before the bulk rewrite),
+ * which read every pixel with {@code getPixel} and packed it bit by bit.
+ */
+public class RasterEncoderTest {
+
+    private static final int[] WIDTHS = {1, 7, 8, 9, 13, 384, 385, 575, 576, 832};
+
+    @Test
+    public void encodeMatchesPerPixelEncoder() {
+        Random rnd = new Random(1);
+        for (int width : WIDTHS) {
+            int height = 5;
+            int[] argb = randomArgb(rnd, width * height);
+            assertArrayEquals("width " + width,
+                    legacyEncode(argb, width, height, 128),
+                    RasterEncoder.encode(argb, width, height, 128));
+        }
+    }
+
+    @Test
+    public void packRowMatchesPerPixelEncoderForEveryThreshold() {
+        Random rnd = new Random(2);
+        int width = 61;
+        int[] argb = randomArgb(rnd, width);
+        for (int threshold = 1; threshold <= 255; threshold += 17) {
+            byte[] expected = legacyEncode(argb, width, 1, threshold);
+            byte[] actual = new byte[RasterEncoder.GS_V0_HEADER_SIZE + RasterEncoder.bytesPerRow(width)];
+            RasterEncoder.writeGsV0Header(actual, 0, RasterEncoder.bytesPerRow(width), 1);
+            RasterEncoder.packRow(argb, 0, width, actual, RasterEncoder.GS_V0_HEADER_SIZE, threshold);
+            assertArrayEquals("threshold " + threshold, expected, actual);
+        }
+    }
+
+    @Test
+    public void packRowHonoursOffsetsAndLeavesPaddingBitsClear() {
+        int width = 11;
+        int[] src = new int[3 + width];
+        for (int i = 0; i < src.length; i++) src[i] = 0xFF000000; // all black
+        byte[] dst = {0x55, 0x55, 0x55, 0x55};
+        RasterEncoder.packRow(src, 3, width, dst, 1, 128);
+        assertArrayEquals(new byte[]{0x55, (byte) 0xFF, (byte) 0xE0, 0x55}, dst);
+    }
+
+    @Test
+    public void packRow565MatchesGetPixelsWidening() {
+        Random rnd = new Random(3);
+        for (int width : WIDTHS) {
+            short[] rgb565 = new short[width];
+            int[] widened = new int[width];
+            for (int x = 0; x < width; x++) {
+                rgb565[x] = (short) rnd.nextInt(1 << 16);
+                widened[x] = getPixels565(rgb565[x]);
+            }
+            for (int threshold : new int[]{1, 64, 128, 200, 255}) {
+                int bytesPerRow = RasterEncoder.bytesPerRow(width);
+                byte[] expected = new byte[bytesPerRow];
+                byte[] actual = new byte[bytesPerRow];
+                RasterEncoder.packRow(widened, 0, width, expected, 0, threshold);
+                RasterEncoder.packRow565(rgb565, 0, width, actual, 0,
+                        RasterEncoder.darkTable565(threshold));
+                assertArrayEquals("width " + width + ", threshold " + threshold, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void darkTableCoversEveryPixel() {
+        byte[] table = RasterEncoder.darkTable565(128);
+        assertEquals(1 << 16, table.length);
+        for (int p = 0; p < table.length; p++) {
+            int expected = RasterEncoder.isDark(getPixels565((short) p), 128) ? 1 : 0;
+            assertEquals("pixel " + p, expected, table[p]);
+        }
+    }
+
+    @Test
+    public void widen565MatchesGetPixels() {
+        assertEquals(0xFF000000, RasterEncoder.widen565((short) 0x0000));
+        assertEquals(0xFFFFFFFF, RasterEncoder.widen565((short) 0xFFFF));
+        assertEquals(0xFFFF0000, RasterEncoder.widen565((short) 0xF800));
+        assertEquals(0xFF00FF00, RasterEncoder.widen565((short) 0x07E0));
+        assertEquals(0xFF0000FF, RasterEncoder.widen565((short) 0x001F));
+        assertEquals(0xFF848284, RasterEncoder.widen565((short) 0x8410));
+
+        short[] row = {0, (short) 0xF800, (short) 0x07E0, (short) 0x001F};
+        int[] dst = new int[3];
+        RasterEncoder.widenRow565(row, 1, 3, dst);
+        assertArrayEquals(new int[]{0xFFFF0000, 0xFF00FF00, 0xFF0000FF}, dst);
+    }
+
+    @Test
+    public void headerCarriesRowBytesAndHeight() {
+        byte[] data = RasterEncoder.encode(new int[300 * 2], 300, 2, 128);
+        assertArrayEquals(new byte[]{0x1D, 0x76, 0x30, 0x00, 38, 0, 2, 0},
+                java.util.Arrays.copyOf(data, RasterEncoder.GS_V0_HEADER_SIZE));
+    }
+
+    // ──────────────────────────────────────────────────────────────────────────
+    // REFERENCE
+    // ──────────────────────────────────────────────────────────────────────────
+
+    /** The original encoder, with getPixel(x, y) replaced by an array read. */
+    static byte[] legacyEncode(int[] argb, int width, int height, int threshold) {
+        int bytesPerRow = (width + 7) / 8;
+        byte[] data = new byte[8 + bytesPerRow * height];
+        data[0] = 0x1D;
+        data[1] = 0x76;
+        data[2] = 0x30;
+        data[3] = 0x00;
+        data[4] = (byte) (bytesPerRow & 0xFF);
+        data[5] = (byte) (bytesPerRow >> 8);
+        data[6] = (byte) (height & 0xFF);
+        data[7] = (byte) (height >> 8);
+        int k = 8;
+        for (int y = 0; y < height; y++) {
+            for (int xByte = 0; xByte < bytesPerRow; xByte++) {
+                int b = 0;
+                for (int bit = 0; bit < 8; bit++) {
+                    int x = xByte * 8 + bit;
+                    if (x < width) {
+                        int pixel = argb[y * width + x];
+                        int r = (pixel >> 16) & 0xFF;
+                        int g = (pixel >> 8) & 0xFF;
+                        int bl = pixel & 0xFF;
+                        int gray = (77 * r + 150 * g + 29 * bl) >> 8;
+                        if (gray < threshold) b |= (1 << (7 - bit));
+                    }
+                }
+                data[k++] = (byte) b;
+            }
+        }
+        return data;
+    }
+
+    /** What Bitmap.getPixels returns for an RGB_565 pixel: top bits replicated. */
+    static int getPixels565(short pixel) {
+        int p = pixel & 0xFFFF;
+        int r = p >> 11, g = (p >> 5) & 0x3F, b = p & 0x1F;
+        return 0xFF000000 | ((r << 3 | r >> 2) << 16) | ((g << 2 | g >> 4) << 8) | (b << 3 | b >> 2);
+    }
+
+    static int[] randomArgb(Random rnd, int n) {
+        int[] argb = new int[n];
+        for (int i = 0; i < n; i++) {
+            // Mostly pure black/white like a receipt, some grey around the threshold
+            int kind = rnd.nextInt(4);
+            argb[i] = kind == 0 ? 0xFF000000 : kind == 1 ? 0xFFFFFFFF : 0xFF000000 | rnd.nextInt(1 << 24);
+        }
+        return argb;
+    }
+}